@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Checks that the forecast can still be read while a large ingest holds the write transaction,
+    and reports the read latency percentiles while it does.
+ */
+public class TestDbConcurrency extends TestUtilities.EmptyDatabaseTestCase {
+
+    public static final String LOG_TAG = TestDbConcurrency.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 50;
+    private static final int DAY_COUNT = 365;
+
+    public void testJournalMode() {
+        if (!WeatherDbHelper.isWalSupported()) {
+            return;
+        }
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The database should use write-ahead logging",
+                "wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+        db.close();
+    }
+
+    private static double getPercentileMillis(List<Long> sortedNanos, int percentile) {
+        return sortedNanos.get((sortedNanos.size() - 1) * percentile / 100) / 1e6;
+    }
+
+    public void testReadsDuringIngest() throws InterruptedException {
+        long readLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        TestUtilities.createWeatherBatch(new long[]{readLocationId}, 14)
+                .insert(mContext.getContentResolver(), false);
+
+        long[] ingestLocationIds = TestUtilities.insertLocations(mContext, LOCATION_COUNT);
+        final List<WeatherBatch> ingestBatches = new ArrayList<WeatherBatch>();
+        for (long locationId : ingestLocationIds) {
+            ingestBatches.add(TestUtilities.createWeatherBatch(new long[]{locationId}, DAY_COUNT));
+        }
+
+        // The ingest writes everything in one transaction, like a large import would.  It
+        // only says it has started once it holds the write lock, and holds it until the first
+        // read is done, so the reads are sure to overlap it however quick the device is.
+        final CountDownLatch ingestStarted = new CountDownLatch(1);
+        final CountDownLatch firstReadDone = new CountDownLatch(1);
+        final CountDownLatch ingestDone = new CountDownLatch(1);
+        final AtomicBoolean readDuringIngest = new AtomicBoolean();
+        Thread ingest = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WeatherDbHelper helper = new WeatherDbHelper(mContext);
+                SQLiteDatabase db = helper.getWritableDatabase();
+                db.beginTransaction();
+                WeatherWriter writer = new WeatherWriter(db);
+                try {
+                    writer.write(ingestBatches.get(0), false);
+                    ingestStarted.countDown();
+                    readDuringIngest.set(firstReadDone.await(10, TimeUnit.SECONDS));
+                    for (int i = 1; i < ingestBatches.size(); i++) {
+                        writer.write(ingestBatches.get(i), false);
+                    }
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    writer.close();
+                    db.endTransaction();
+                    helper.close();
+                    ingestDone.countDown();
+                }
+            }
+        });
+        ingest.start();
+        assertTrue(ingestStarted.await(10, TimeUnit.SECONDS));
+
+        List<Long> latencies = new ArrayList<Long>();
+        do {
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                            TestUtilities.TEST_DATE),
+                    null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals("Error: Reads should see the forecast from before the ingest",
+                    14, cursor.getCount());
+            cursor.close();
+            latencies.add(System.nanoTime() - start);
+            firstReadDone.countDown();
+        } while (!ingestDone.await(0, TimeUnit.MILLISECONDS));
+        ingest.join();
+
+        Collections.sort(latencies);
+        Log.i(LOG_TAG, String.format("%d reads during an ingest of %d rows: " +
+                        "p50 %.2fms, p95 %.2fms, p99 %.2fms, max %.2fms",
+                latencies.size(), LOCATION_COUNT * DAY_COUNT,
+                getPercentileMillis(latencies, 50), getPercentileMillis(latencies, 95),
+                getPercentileMillis(latencies, 99), getPercentileMillis(latencies, 100)));
+
+        if (WeatherDbHelper.isWalSupported()) {
+            // Without the log, the first read would have waited for the whole ingest to commit
+            assertTrue("Error: Reads should run alongside the ingest", readDuringIngest.get());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.weather.app.data.WeatherContract.LocationEntry;
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+
+/*
+    Builds databases with the schemas of older versions of the app, and checks that opening them
+    now keeps their data.  The old schemas are written out as they were, rather than built from
+    the contract, since the contract moves on with the current schema.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    private static final String TEST_DATABASE_NAME = "weather_upgrade_test.db";
+
+    private static final String[] VERSION_2_SCHEMA = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                    "coord_lat REAL NOT NULL, coord_long REAL NOT NULL );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                    " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void createDatabase(int version, String[] schema) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DATABASE_NAME, 0, null);
+        for (String sql : schema) {
+            db.execSQL(sql);
+        }
+        db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, " +
+                "coord_long) VALUES (7, '" + TestUtilities.TEST_LOCATION + "', 'North Pole', " +
+                "64.7488, -147.353)");
+        db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, " +
+                "humidity, pressure, wind, degrees) VALUES (7, " + TestUtilities.TEST_DATE +
+                ", 'Asteroids', 321, 65, 75, 1.2, 1.3, 5.5, 1.1)");
+        db.setVersion(version);
+        db.close();
+    }
+
+    private static HashSet<String> getColumnNames(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        HashSet<String> columnNames = new HashSet<String>();
+        int nameIndex = cursor.getColumnIndex("name");
+        while (cursor.moveToNext()) {
+            columnNames.add(cursor.getString(nameIndex));
+        }
+        cursor.close();
+        return columnNames;
+    }
+
+    public void testUpgradeKeepsData() {
+        createDatabase(2, VERSION_2_SCHEMA);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext, TEST_DATABASE_NAME).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue("Error: The location didn't survive the upgrade", cursor.moveToFirst());
+        assertEquals(7, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(LocationEntry.COLUMN_ETAG)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(LocationEntry.COLUMN_LAST_MODIFIED)));
+        cursor.close();
+
+        cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue("Error: The weather didn't survive the upgrade", cursor.moveToFirst());
+        assertEquals(7, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+        assertEquals("Asteroids", cursor.getString(
+                cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        // and is stored encoded now
+        assertEquals(WeatherCodec.getJulianDay(TestUtilities.TEST_DATE),
+                cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(7500, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        assertEquals(120, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY)));
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX});
+        assertTrue("Error: The upgrade didn't add the forecast index", cursor.moveToFirst());
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{WeatherDbHelper.LOCATION_COORD_INDEX});
+        assertTrue("Error: The upgrade didn't add the coordinate index", cursor.moveToFirst());
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT docid FROM " + WeatherDbHelper.LOCATION_SEARCH_TABLE +
+                " WHERE " + WeatherDbHelper.LOCATION_SEARCH_TABLE + " MATCH ?",
+                new String[]{"\"north*\""});
+        assertTrue("Error: The upgrade didn't index the location for search", cursor.moveToFirst());
+        assertEquals(7, cursor.getLong(0));
+        cursor.close();
+        db.close();
+    }
+
+    /*
+        An upgraded database should end up with the same columns as a new one
+     */
+    public void testUpgradeMatchesCreate() {
+        createDatabase(2, VERSION_2_SCHEMA);
+        SQLiteDatabase upgraded =
+                new WeatherDbHelper(mContext, TEST_DATABASE_NAME).getWritableDatabase();
+        HashSet<String> upgradedLocationColumns =
+                getColumnNames(upgraded, LocationEntry.TABLE_NAME);
+        HashSet<String> upgradedWeatherColumns = getColumnNames(upgraded, WeatherEntry.TABLE_NAME);
+        upgraded.close();
+
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        SQLiteDatabase created =
+                new WeatherDbHelper(mContext, TEST_DATABASE_NAME).getWritableDatabase();
+        assertEquals(getColumnNames(created, LocationEntry.TABLE_NAME), upgradedLocationColumns);
+        assertEquals(getColumnNames(created, WeatherEntry.TABLE_NAME), upgradedWeatherColumns);
+        created.close();
+    }
+
+    /*
+        Databases from before version 2 aren't worth upgrading, so they start over
+     */
+    public void testUpgradeFromUnknownVersionStartsOver() {
+        createDatabase(1, VERSION_2_SCHEMA);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext, TEST_DATABASE_NAME).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+}
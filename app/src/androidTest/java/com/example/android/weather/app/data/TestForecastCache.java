@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the provider answers repeated forecast queries from memory, and that a write
+    to the location's weather means the next query reads the new forecast.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class TestForecastCache extends TestUtilities.EmptyDatabaseTestCase {
+
+    private static final Uri FORECAST_URI =
+            WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+    private long[] getCacheStats() {
+        Bundle stats = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_GET_CACHE_STATS, null, null);
+        return new long[]{stats.getLong(WeatherEntry.EXTRA_CACHE_HITS),
+                stats.getLong(WeatherEntry.EXTRA_CACHE_MISSES)};
+    }
+
+    private double queryMaxTemp() {
+        Cursor cursor = mContext.getContentResolver().query(FORECAST_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        double maxTemp = cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+        cursor.close();
+        return maxTemp;
+    }
+
+    public void testRepeatedQueriesHitTheCache() {
+        if (!ForecastCache.isSupported()) {
+            return;
+        }
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{weatherValues});
+
+        long[] before = getCacheStats();
+        assertEquals(75.0, queryMaxTemp());
+        assertEquals(75.0, queryMaxTemp());
+        long[] after = getCacheStats();
+        assertEquals("Error: The second query should have come from the cache",
+                before[0] + 1, after[0]);
+        assertEquals(before[1] + 1, after[1]);
+
+        // An upsert that changes the day drops the cached forecast
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        assertEquals(1, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherUpsertUri(), new ContentValues[]{weatherValues}));
+        assertEquals("Error: The cache should have been dropped by the write",
+                80.0, queryMaxTemp());
+
+        // and one that changes nothing keeps it
+        before = getCacheStats();
+        assertEquals(0, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherUpsertUri(), new ContentValues[]{weatherValues}));
+        assertEquals(80.0, queryMaxTemp());
+        assertEquals(before[0] + 1, getCacheStats()[0]);
+    }
+
+    public void testPagesAreNotCached() {
+        if (!ForecastCache.isSupported()) {
+            return;
+        }
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{TestUtilities.createWeatherValues(locationId)});
+
+        long[] before = getCacheStats();
+        Uri[] pageUris = {
+                WeatherContract.buildPageUri(FORECAST_URI, 10, 0),
+                WeatherContract.buildPageAfterDateUri(FORECAST_URI, 10, 0)
+        };
+        for (Uri pageUri : pageUris) {
+            Cursor cursor = mContext.getContentResolver().query(pageUri, null, null, null, null);
+            assertEquals(1, cursor.getCount());
+            cursor.close();
+        }
+        long[] after = getCacheStats();
+        assertEquals("Error: Pages shouldn't go through the cache", before[0], after[0]);
+        assertEquals("Error: Pages shouldn't go through the cache", before[1], after[1]);
+    }
+
+    public void testTodayWeather() {
+        if (!ForecastCache.isSupported()) {
+            return;
+        }
+        assertNull("Error: There is no weather for a location we don't know",
+                TodayWeather.query(mContext.getContentResolver(), TestUtilities.TEST_LOCATION));
+
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, System.currentTimeMillis());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{weatherValues});
+
+        Bundle today = TodayWeather.query(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION);
+        assertNotNull(today);
+        assertEquals(WeatherContract.normalizeDate(System.currentTimeMillis()),
+                today.getLong(WeatherEntry.COLUMN_DATE));
+        assertEquals(321, today.getInt(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Asteroids", today.getString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(75.0, today.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+
+        long hits = getCacheStats()[0];
+        assertEquals(75.0, TodayWeather.query(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION).getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals("Error: Today should have come from the cache", hits + 1,
+                getCacheStats()[0]);
+
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                new ContentValues[]{weatherValues});
+        assertEquals("Error: A write to today should drop it from the cache", 80.0,
+                TodayWeather.query(mContext.getContentResolver(), TestUtilities.TEST_LOCATION)
+                        .getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+    }
+
+    public void testStaleReadIsNotKept() {
+        if (!ForecastCache.isSupported()) {
+            return;
+        }
+        ForecastCache cache = new ForecastCache();
+        long generation = cache.getGeneration();
+        // A write to another location commits while the query runs
+        cache.invalidate(2);
+        MatrixCursor cursor = new MatrixCursor(new String[]{WeatherEntry._ID});
+        cursor.addRow(new Object[]{1L});
+        Cursor copy = cache.put(1, "key", cursor, generation);
+        assertEquals(1, copy.getCount());
+        copy.close();
+        assertNull("Error: A read that overlapped a write shouldn't be cached",
+                cache.get(1, "key"));
+
+        generation = cache.getGeneration();
+        cache.put(1, "key", new MatrixCursor(new String[]{WeatherEntry._ID}), generation).close();
+        Cursor cached = cache.get(1, "key");
+        assertNotNull(cached);
+        cached.close();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
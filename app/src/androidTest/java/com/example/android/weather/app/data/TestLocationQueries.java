@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.example.android.weather.app.data.WeatherContract.LocationEntry;
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that weather queries by location setting still find the right rows, in a large
+    database, now that the provider looks up the location's _id once and filters on it, and
+    reports how long each way takes.
+ */
+public class TestLocationQueries extends TestUtilities.EmptyDatabaseTestCase {
+
+    public static final String LOG_TAG = TestLocationQueries.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 200;
+    private static final int DAY_COUNT = 365;
+    private static final int QUERY_COUNT = 50;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private long[] createLargeDatabase() {
+        long[] locationIds = TestUtilities.insertLocations(mContext, LOCATION_COUNT);
+        TestUtilities.createWeatherBatch(locationIds, DAY_COUNT)
+                .insert(mContext.getContentResolver(), false);
+        return locationIds;
+    }
+
+    /*
+        The way the provider used to answer weather/[location]?date=[startDate], with the date as
+        it's stored now
+     */
+    private Cursor queryWithJoin(SQLiteDatabase db, String locationSetting, long startDate) {
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(
+                WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                        LocationEntry.TABLE_NAME +
+                        " ON " + WeatherEntry.TABLE_NAME +
+                        "." + WeatherEntry.COLUMN_LOC_KEY +
+                        " = " + LocationEntry.TABLE_NAME +
+                        "." + LocationEntry._ID);
+        return queryBuilder.query(db,
+                FORECAST_COLUMNS,
+                LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING +
+                        " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ? ",
+                new String[]{locationSetting,
+                        Integer.toString(WeatherCodec.getJulianDay(startDate))},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    /*
+        The way the provider answers it now, once it knows the location's _id
+     */
+    private Cursor queryWithLocationId(SQLiteDatabase db, long locationId, long startDate) {
+        return db.query(WeatherEntry.TABLE_NAME,
+                FORECAST_COLUMNS,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ? ",
+                new String[]{Long.toString(locationId),
+                        Integer.toString(WeatherCodec.getJulianDay(startDate))},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private Cursor queryWithProvider(String locationSetting, long startDate) {
+        return mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, startDate),
+                FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    public void testProviderMatchesJoin() {
+        createLargeDatabase();
+        long startDate = TestUtilities.TEST_DATE + (DAY_COUNT - 14) * TestUtilities.DAY_IN_MILLIS;
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String locationSetting = TestUtilities.createLocationSetting(i * 7 % LOCATION_COUNT);
+            Cursor joinCursor = queryWithJoin(db, locationSetting, startDate);
+            Cursor providerCursor = queryWithProvider(locationSetting, startDate);
+            assertEquals("Error: The provider found a different forecast than the join did",
+                    joinCursor.getCount(), providerCursor.getCount());
+            assertEquals(14, providerCursor.getCount());
+            joinCursor.close();
+            providerCursor.close();
+        }
+        db.close();
+    }
+
+    /*
+        Times both queries straight on the database, so that neither includes the provider's
+        own overhead, after a first round that compiles their statements.
+     */
+    @LargeTest
+    public void testLocationQueryLatency() {
+        long[] locationIds = createLargeDatabase();
+        long startDate = TestUtilities.TEST_DATE + (DAY_COUNT - 14) * TestUtilities.DAY_IN_MILLIS;
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        queryWithJoin(db, TestUtilities.createLocationSetting(0), startDate).close();
+        queryWithLocationId(db, locationIds[0], startDate).close();
+
+        long joinNanos = 0;
+        long locationIdNanos = 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            int location = i * 7 % LOCATION_COUNT;
+            long start = System.nanoTime();
+            Cursor cursor = queryWithJoin(db, TestUtilities.createLocationSetting(location),
+                    startDate);
+            assertEquals(14, cursor.getCount());
+            joinNanos += System.nanoTime() - start;
+            cursor.close();
+
+            start = System.nanoTime();
+            cursor = queryWithLocationId(db, locationIds[location], startDate);
+            assertEquals(14, cursor.getCount());
+            locationIdNanos += System.nanoTime() - start;
+            cursor.close();
+        }
+        db.close();
+
+        Log.i(LOG_TAG, String.format("%d locations x %d days: join %.3fms/query, " +
+                        "location_id %.3fms/query", LOCATION_COUNT, DAY_COUNT,
+                joinNanos / 1e6 / QUERY_COUNT, locationIdNanos / 1e6 / QUERY_COUNT));
+    }
+
+    public void testDeletedLocationIsForgotten() {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+
+        Cursor cursor = queryWithProvider(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        assertNotNull(LocationIdCache.get(TestUtilities.TEST_LOCATION));
+
+        TestUtilities.deleteAllRecords(mContext);
+        assertNull("Error: Deleting locations should clear the location id cache",
+                LocationIdCache.get(TestUtilities.TEST_LOCATION));
+    }
+}
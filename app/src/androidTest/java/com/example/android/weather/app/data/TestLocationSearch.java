@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.example.android.weather.app.data.WeatherContract.LocationEntry;
+
+/*
+    Checks that the location search finds locations by the start of any word of their setting
+    or city name, follows the location table as it changes, and reports how long a search of a
+    large number of locations takes.  TestQueryPlans checks the search uses the index.
+ */
+public class TestLocationSearch extends TestUtilities.EmptyDatabaseTestCase {
+
+    public static final String LOG_TAG = TestLocationSearch.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 20000;
+    private static final int QUERY_COUNT = 50;
+    private static final int LIMIT = 10;
+
+    // The target is under a millisecond.  This is five times that, so that a slow emulator
+    // doesn't fail it.
+    private static final long MAX_SEARCH_NANOS = 5000000;
+
+    private static final String[] SEARCH_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME
+    };
+
+    private long insertLocation(String locationSetting, String cityName) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    private Cursor search(String query) {
+        return mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearchUri(query, LIMIT), SEARCH_COLUMNS, null, null,
+                null);
+    }
+
+    private void assertFinds(String query, String... locationSettings) {
+        Cursor cursor = search(query);
+        assertEquals("Error: Wrong number of locations for \"" + query + "\"",
+                locationSettings.length, cursor.getCount());
+        for (String locationSetting : locationSettings) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(locationSetting, cursor.getString(1));
+        }
+        cursor.close();
+    }
+
+    public void testBuildMatchQuery() {
+        assertEquals("\"Mountain*\" \"Vi*\"", WeatherProvider.buildMatchQuery("Mountain Vi"));
+        assertEquals("\"London*\" \"UK*\"", WeatherProvider.buildMatchQuery("London, UK"));
+        assertEquals("Error: A single letter should only match a whole word",
+                "\"New*\" \"y\"", WeatherProvider.buildMatchQuery("New y"));
+        assertEquals("Error: Operators should be searched for as words",
+                "\"OR*\"", WeatherProvider.buildMatchQuery("OR"));
+        assertNull(WeatherProvider.buildMatchQuery(" ,-\""));
+    }
+
+    public void testSearch() {
+        insertLocation("94043", "Mountain View");
+        insertLocation("Mountainair, NM", "Mountainair");
+        insertLocation("London, UK", "London");
+
+        assertFinds("940", "94043");
+        assertFinds("mount", "94043", "Mountainair, NM");
+        assertFinds("Mountain vi", "94043");
+        assertFinds("Lon uk", "London, UK");
+        assertFinds("uk", "London, UK");
+        assertFinds("ondon");
+        assertFinds("");
+    }
+
+    public void testSearchFollowsLocations() {
+        long locationId = insertLocation("94043", "Mountain View");
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Mtn View");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)});
+        assertFinds("mount");
+        assertFinds("mtn", "94043");
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)});
+        assertFinds("mtn");
+    }
+
+    /*
+        The query the provider runs for a search, straight on the database, so that the time
+        is the index's rather than the provider's and the cursor's
+     */
+    private static Cursor searchDatabase(SQLiteDatabase db, String query) {
+        return db.query(LocationEntry.TABLE_NAME, SEARCH_COLUMNS,
+                WeatherProvider.sLocationSearchSelection,
+                new String[]{WeatherProvider.buildMatchQuery(query)}, null, null, null,
+                Integer.toString(LIMIT));
+    }
+
+    @LargeTest
+    public void testSearchSpeed() {
+        ContentValues[] locations = new ContentValues[LOCATION_COUNT];
+        for (int location = 0; location < LOCATION_COUNT; location++) {
+            locations[location] = TestUtilities.createLocationValues(location);
+            locations[location].put(LocationEntry.COLUMN_CITY_NAME,
+                    "City " + Integer.toString(location, 36) + " " +
+                            Integer.toString(location * 7919 % LOCATION_COUNT, 36));
+        }
+        TestUtilities.insertLocations(mContext, locations);
+
+        String[] queries = {"10", "123", "ci", "city a", "zz", "1999"};
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        // The first searches compile the statement, which later ones reuse
+        for (String query : queries) {
+            searchDatabase(db, query).close();
+        }
+        long nanos = 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = searchDatabase(db, queries[i % queries.length]);
+            int count = cursor.getCount();
+            nanos += System.nanoTime() - start;
+            assertTrue(count <= LIMIT);
+            cursor.close();
+        }
+        db.close();
+        assertFinds("29999", "29999");
+
+        String time = String.format("%d locations: search %.3fms/query", LOCATION_COUNT,
+                nanos / 1e6 / QUERY_COUNT);
+        Log.i(LOG_TAG, time);
+        assertTrue("Error: Searching took too long. " + time,
+                nanos / QUERY_COUNT < MAX_SEARCH_NANOS);
+    }
+}
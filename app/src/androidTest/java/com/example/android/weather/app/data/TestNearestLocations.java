@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.weather.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Checks that the nearest locations come back nearest first, including across the
+    antimeridian, that growing the box never misses a nearer location than a full sort would
+    find, with a large number of locations.
+ */
+public class TestNearestLocations extends TestUtilities.EmptyDatabaseTestCase {
+
+    private static final int LOCATION_COUNT = 20000;
+    private static final int QUERY_COUNT = 50;
+
+    private static final String[] NEAREST_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private static ContentValues createLocationValues(String locationSetting, double latitude,
+                                                      double longitude) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, latitude);
+        values.put(LocationEntry.COLUMN_COORD_LONG, longitude);
+        return values;
+    }
+
+    private void insertLocation(String locationSetting, double latitude, double longitude) {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                createLocationValues(locationSetting, latitude, longitude));
+    }
+
+    private Cursor queryNearest(double latitude, double longitude, int count) {
+        return mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationsUri(latitude, longitude, count),
+                NEAREST_COLUMNS, null, null, null);
+    }
+
+    private void assertNearest(double latitude, double longitude, String... locationSettings) {
+        Cursor cursor = queryNearest(latitude, longitude, locationSettings.length);
+        assertEquals(locationSettings.length, cursor.getCount());
+        for (String locationSetting : locationSettings) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(locationSetting, cursor.getString(1));
+        }
+        cursor.close();
+    }
+
+    public void testNearest() {
+        insertLocation("94043", 37.386, -122.084);
+        insertLocation("San Francisco, CA", 37.775, -122.419);
+        insertLocation("London, UK", 51.507, -0.128);
+        insertLocation("Paris, FR", 48.857, 2.352);
+        insertLocation("Suva, FJ", -18.142, 178.442);
+        insertLocation("Apia, WS", -13.834, -171.760);
+
+        assertNearest(37.4, -122.1, "94043", "San Francisco, CA");
+        assertNearest(51.0, 0.5, "London, UK", "Paris, FR");
+        assertNearest(-17.0, -179.9, "Suva, FJ", "Apia, WS");
+        assertNearest(-14.0, 179.9, "Suva, FJ", "Apia, WS");
+        assertNearest(-14.0, -173.0, "Apia, WS", "Suva, FJ");
+
+        Cursor cursor = queryNearest(0, 0, 10);
+        assertEquals("Error: Asking for more locations than there are should return them all",
+                6, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationsUri(37.4, -122.1, 1), NEAREST_COLUMNS,
+                LocationEntry.COLUMN_LOCATION_SETTING + " != ?", new String[]{"94043"}, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("San Francisco, CA", cursor.getString(1));
+        cursor.close();
+    }
+
+    public void testBadPoints() {
+        insertLocation("94043", 37.386, -122.084);
+        Uri[] badUris = {
+                LocationEntry.CONTENT_URI.buildUpon().appendPath(WeatherContract.PATH_NEAREST)
+                        .appendQueryParameter(LocationEntry.PARAM_LATITUDE, "37.4").build(),
+                LocationEntry.buildNearestLocationsUri(Double.NaN, -122.1, 1),
+                LocationEntry.buildNearestLocationsUri(37.4, Double.POSITIVE_INFINITY, 1),
+                LocationEntry.buildNearestLocationsUri(91, -122.1, 1),
+                LocationEntry.buildNearestLocationsUri(37.4, -122.1, -1)
+        };
+        for (Uri uri : badUris) {
+            try {
+                mContext.getContentResolver().query(uri, NEAREST_COLUMNS, null, null, null);
+                fail("Error: " + uri + " should have been refused");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    public void testNearestMatchesFullSort() {
+        Random random = new Random(25);
+        ContentValues[] locations = new ContentValues[LOCATION_COUNT];
+        for (int location = 0; location < LOCATION_COUNT; location++) {
+            locations[location] = TestUtilities.createLocationValues(location);
+            locations[location].put(LocationEntry.COLUMN_COORD_LAT,
+                    random.nextDouble() * 160 - 80);
+            locations[location].put(LocationEntry.COLUMN_COORD_LONG,
+                    random.nextDouble() * 360 - 180);
+        }
+        TestUtilities.insertLocations(mContext, locations);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            int count = 1 + i % 5;
+            Cursor cursor = queryNearest(latitude, longitude, count);
+            List<String> args = new ArrayList<String>();
+            String distance = NearestLocations.buildDistanceExpression(latitude, longitude, args);
+            Cursor sorted = db.query(LocationEntry.TABLE_NAME, NEAREST_COLUMNS, null,
+                    args.toArray(new String[args.size()]), null, null, distance + " ASC",
+                    Integer.toString(count));
+            assertEquals(count, cursor.getCount());
+            while (sorted.moveToNext()) {
+                assertTrue(cursor.moveToNext());
+                assertEquals("Error: The box missed a nearer location to " + latitude + ", " +
+                        longitude, sorted.getLong(0), cursor.getLong(0));
+            }
+            sorted.close();
+            cursor.close();
+        }
+        db.close();
+    }
+}
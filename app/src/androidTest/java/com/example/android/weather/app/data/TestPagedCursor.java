@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks the paged weather URIs, and that a PagedCursor reads the same rows as one query
+    would, whichever way it moves.
+ */
+public class TestPagedCursor extends TestUtilities.EmptyDatabaseTestCase {
+
+    private static final int DAY_COUNT = 100;
+
+    private static final String[] PROJECTION = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+
+    private static final Uri LOCATION_URI =
+            WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        WeatherBatch batch = new WeatherBatch(DAY_COUNT);
+        for (int day = 0; day < DAY_COUNT; day++) {
+            batch.add(locationId, getDate(day), 321, "Asteroids", 65, day, 1.2, 1.3, 5.5, 1.1);
+        }
+        batch.insert(mContext.getContentResolver(), false);
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + day * TestUtilities.DAY_IN_MILLIS);
+    }
+
+    public void testPageUris() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.buildPageUri(LOCATION_URI, 10, 20), PROJECTION, null, null, null);
+        assertEquals(10, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The page should start at its offset",
+                getDate(20), cursor.getLong(1));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.buildPageAfterDateUri(LOCATION_URI, 10, getDate(94)),
+                PROJECTION, null, null, null);
+        assertEquals("Error: Only 5 days come after the 95th", 5, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(getDate(95), cursor.getLong(1));
+        cursor.close();
+    }
+
+    public void testPagedCursor() {
+        Cursor cursor = new PagedCursor(mContext.getContentResolver(), LOCATION_URI, PROJECTION,
+                10, 2);
+        assertEquals(DAY_COUNT, cursor.getCount());
+        int day = 0;
+        while (cursor.moveToNext()) {
+            assertEquals(getDate(day), cursor.getLong(1));
+            assertEquals((double) day, cursor.getDouble(2));
+            day++;
+        }
+        assertEquals(DAY_COUNT, day);
+
+        // Back to pages that were closed to make room
+        assertTrue(cursor.moveToPosition(5));
+        assertEquals(getDate(5), cursor.getLong(1));
+        assertTrue(cursor.moveToPosition(57));
+        assertEquals(getDate(57), cursor.getLong(1));
+        assertFalse(cursor.moveToPosition(DAY_COUNT));
+        cursor.close();
+    }
+
+    public void testFindDate() {
+        PagedCursor cursor = new PagedCursor(mContext.getContentResolver(), LOCATION_URI,
+                PROJECTION, 10, 2);
+        assertEquals(57, cursor.findDate(getDate(57)));
+        assertEquals(57, cursor.getFoundPosition());
+        assertEquals(0, cursor.findDate(getDate(0)));
+        assertEquals(-1, cursor.findDate(getDate(DAY_COUNT)));
+        assertEquals("Error: Only midnights are days", -1, cursor.findDate(getDate(3) + 1));
+        assertEquals(-1, cursor.getFoundPosition());
+        cursor.close();
+    }
+
+    public void testMainThreadDoesNotWait() throws InterruptedException {
+        final PagedCursor cursor = new PagedCursor(mContext.getContentResolver(), LOCATION_URI,
+                PROJECTION, 10, 3);
+        // Filled in on the main thread, since a failed assertion there would take the app down
+        final boolean[] loading = new boolean[1];
+        final int[] loadedCount = new int[1];
+        final long[] loadedDate = new long[1];
+        final CountDownLatch loaded = new CountDownLatch(1);
+        cursor.setOnPageLoadedListener(new PagedCursor.OnPageLoadedListener() {
+            @Override
+            public void onPageLoaded(int firstPosition, int count) {
+                if (firstPosition == 50) {
+                    loadedCount[0] = count;
+                    loadedDate[0] = cursor.getLong(1);
+                    loaded.countDown();
+                }
+            }
+        });
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                loading[0] = cursor.moveToPosition(55) && cursor.isRowLoading();
+            }
+        });
+
+        assertTrue("Error: The page never arrived", loaded.await(5, TimeUnit.SECONDS));
+        assertTrue("Error: The main thread shouldn't read a page itself", loading[0]);
+        assertEquals(10, loadedCount[0]);
+        assertEquals("Error: The row should read from its page once it arrives",
+                getDate(55), loadedDate[0]);
+        cursor.close();
+    }
+
+    public void testEmpty() {
+        Cursor cursor = new PagedCursor(mContext.getContentResolver(),
+                WeatherEntry.buildWeatherLocation("nowhere"), PROJECTION, 10, 2);
+        assertEquals(0, cursor.getCount());
+        assertFalse(cursor.moveToFirst());
+        cursor.close();
+    }
+}
@@ -16,20 +16,28 @@
 package com.example.android.weather.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.RemoteException;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.weather.app.data.WeatherContract.LocationEntry;
 import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /*
     Note: This is not a complete set of tests of the Weather ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -160,6 +168,20 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.weather.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.weather.app/location/search?q=North
+        type = mContext.getContentResolver().getType(
+                LocationEntry.buildLocationSearchUri("North", 10));
+        // vnd.android.cursor.dir/com.example.android.weather.app/location
+        assertEquals("Error: the location search URI should return LocationEntry.CONTENT_TYPE",
+                LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.weather.app/location/nearest?lat=64.7488&lon=-147.353
+        type = mContext.getContentResolver().getType(
+                LocationEntry.buildNearestLocationsUri(64.7488, -147.353, 1));
+        // vnd.android.cursor.dir/com.example.android.weather.app/location
+        assertEquals("Error: the nearest locations URI should return LocationEntry.CONTENT_TYPE",
+                LocationEntry.CONTENT_TYPE, type);
     }
 
 
@@ -178,8 +200,12 @@ public class TestProvider extends AndroidTestCase {
 
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        // The table holds it encoded, and the provider should read it back as it was
+        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null,
+                WeatherCodec.encode(weatherValues));
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -512,4 +538,215 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testUpsertBulkInsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+
+        // An empty table means every row is new
+        int changedCount = mContext.getContentResolver().bulkInsert(upsertUri, bulkInsertContentValues);
+        assertEquals("Error: Upsert didn't insert every new row",
+                BULK_INSERT_RECORDS_TO_INSERT, changedCount);
+
+        // The same forecast again shouldn't change anything
+        changedCount = mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: Upsert wrote rows that hadn't changed", 0, changedCount);
+
+        // Change a single day, and make sure it's updated in place and observers hear about it
+        ContentValues[] updatedValues = createBulkInsertWeatherValues(locationRowId);
+        updatedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 100.5);
+        updatedValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToPosition(3));
+        long updatedRowId = cursor.getLong(0);
+        cursor.close();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        changedCount = mContext.getContentResolver().bulkInsert(upsertUri, updatedValues);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: Upsert should only have written the changed row", 1, changedCount);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testUpsertBulkInsert.  Error validating WeatherEntry " + i,
+                    cursor, updatedValues[i]);
+        }
+        assertTrue(cursor.moveToPosition(3));
+        assertEquals("Error: The changed row should have been updated in place",
+                updatedRowId, cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+        cursor.close();
+    }
+
+    /*
+        This test checks that a batch of operations, like the sync adapter's, is stored in one
+        transaction: the location insert it refers back to, the weather upserts and the delete
+        either all happen or none do.
+     */
+    public void testApplyBatch() throws Exception {
+        WeatherBatch weather = new WeatherBatch(BULK_INSERT_RECORDS_TO_INSERT);
+        for (ContentValues values : createBulkInsertWeatherValues(0)) {
+            weather.add(0, values.getAsLong(WeatherEntry.COLUMN_DATE),
+                    values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    values.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        operations.add(weather.newInsert(true)
+                .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                .build());
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        assertEquals("Error: Each new day should count as a change",
+                BULK_INSERT_RECORDS_TO_INSERT, WeatherEntry.getCountFromUri(results[1].uri));
+        // The first day is the test date, which the delete removes again
+        assertEquals(1, results[2].count.intValue());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+
+        // Running the same weather again for the stored location only brings back the deleted day
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        operations.clear();
+        operations.add(weather.newInsert(true)
+                .withValue(WeatherEntry.COLUMN_LOC_KEY, locationRowId)
+                .build());
+        results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals("Error: Unchanged days shouldn't be written",
+                1, WeatherEntry.getCountFromUri(results[0].uri));
+        results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals("Error: Unchanged days shouldn't be written",
+                0, WeatherEntry.getCountFromUri(results[0].uri));
+    }
+
+    /*
+        This test checks that a batch that fails part way through leaves nothing behind.
+     */
+    public void testApplyBatchRollsBack() {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build());
+        operations.add(ContentProviderOperation.newAssertQuery(LocationEntry.CONTENT_URI)
+                .withExpectedCount(2)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: The assertion should have failed the batch");
+        } catch (OperationApplicationException | RemoteException expected) {
+            // and rolled back the insert
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: A failed batch shouldn't store anything", 0, cursor.getCount());
+        cursor.close();
+        assertNull("Error: A failed batch should forget the locations it inserted",
+                LocationIdCache.get(TestUtilities.TEST_LOCATION));
+    }
+
+    /*
+        This test checks that a change to one location's weather is only told to the observers
+        of that location, and of the days that changed.
+     */
+    public void testChangesOnlyNotifyTheirLocation() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocationValues = TestUtilities.createNorthPoleLocationValues();
+        otherLocationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "H0H 0H0");
+        long otherLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocationValues));
+
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+        mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        ContentValues[] otherWeatherValues = createBulkInsertWeatherValues(otherLocationRowId);
+        mContext.getContentResolver().bulkInsert(upsertUri, otherWeatherValues);
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                locationObserver);
+        TestUtilities.TestContentObserver otherLocationObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("H0H 0H0"), true, otherLocationObserver);
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate("H0H 0H0", TestUtilities.TEST_DATE),
+                true, otherDayObserver);
+
+        // Change a single day of the other location
+        otherWeatherValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 100.5);
+        assertEquals(1, mContext.getContentResolver().bulkInsert(upsertUri,
+                new ContentValues[]{otherWeatherValues[3]}));
+
+        otherLocationObserver.waitForNotificationOrFail();
+        assertFalse("Error: A change to one location shouldn't reload another",
+                locationObserver.mContentChanged);
+        assertFalse("Error: A change to one day shouldn't reload another",
+                otherDayObserver.mContentChanged);
+
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+        locationObserver.mHT.quit();
+        otherDayObserver.mHT.quit();
+    }
+
+    public void testCollapseUris() {
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        uris.add(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        uris.add(WeatherEntry.buildWeatherUpsertUri());
+        uris.add(LocationEntry.CONTENT_URI);
+        uris.add(WeatherEntry.CONTENT_URI);
+
+        Set<Uri> collapsed = WeatherProvider.collapseUris(uris);
+        assertEquals(2, collapsed.size());
+        assertTrue(collapsed.contains(WeatherEntry.CONTENT_URI));
+        assertTrue(collapsed.contains(LocationEntry.CONTENT_URI));
+    }
 }
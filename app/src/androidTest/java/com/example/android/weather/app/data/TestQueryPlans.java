@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.weather.app.data.WeatherContract.LocationEntry;
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries behind each of the provider's URIs, and fails if any
+    of them has to scan a whole table or sort its results, so that they stay O(log n) however
+    much history the database holds.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    // What the forecast list asks for, which needs the join
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // The same without the location columns, which the provider reads from the weather table
+    private static final String[] WEATHER_ONLY_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // Dates are stored as Julian days, and this is TestUtilities.TEST_DATE's
+    private static final String TEST_DAY = "2457012";
+
+    // How a plan shows a virtual table, with the index its module chose, where 0 means it
+    // reads every row.  FTS3 uses the others for a docid lookup or a full-text MATCH.
+    private static final Pattern VIRTUAL_TABLE_INDEX =
+            Pattern.compile("VIRTUAL TABLE INDEX (\\d+)");
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private List<String> explain(String sql, String... args) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        List<String> details = new ArrayList<String>();
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.d(LOG_TAG, sql + " -> " + details);
+        return details;
+    }
+
+    /**
+     * @return true if the step reads every row of a table, or an index from end to end
+     */
+    private static boolean isScan(String detail) {
+        Matcher virtualTable = VIRTUAL_TABLE_INDEX.matcher(detail);
+        if (virtualTable.find()) {
+            return virtualTable.group(1).equals("0");
+        }
+        return detail.startsWith("SCAN");
+    }
+
+    /**
+     * Fails if the plan scans a table, or an index from end to end, or sorts the rows itself.
+     */
+    private void assertIndexed(String name, String sql, String... args) {
+        List<String> details = explain(sql, args);
+        assertFalse("Error: No plan for " + name, details.isEmpty());
+        for (String detail : details) {
+            assertFalse("Error: " + name + " scans: " + detail, isScan(detail));
+            assertFalse("Error: " + name + " sorts: " + detail, detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    // The provider reads the columns decoded, which mustn't cost it the index
+    private static String joinQuery(String[] projection, String selection) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                WeatherCodec.decodeJoinedProjection(projection), selection, null, null,
+                WeatherCodec.buildStoredSortOrder(SORT_ORDER), null);
+    }
+
+    private static String weatherQuery(String[] projection, String selection) {
+        return SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                WeatherCodec.decodeProjection(projection, WeatherEntry.TABLE_NAME), selection,
+                null, null, WeatherCodec.buildStoredSortOrder(SORT_ORDER), null);
+    }
+
+    public void testWeatherWithLocationAndStartDate() {
+        assertIndexed("weather/*?date= by location id, joined",
+                joinQuery(FORECAST_COLUMNS, WeatherProvider.sLocationIdWithStartDateSelection),
+                "1", TEST_DAY);
+        assertIndexed("weather/*?date= by location id",
+                weatherQuery(WEATHER_ONLY_COLUMNS,
+                        WeatherProvider.sLocationIdWithStartDateSelection),
+                "1", TEST_DAY);
+        assertIndexed("weather/*?date= by location setting",
+                joinQuery(FORECAST_COLUMNS,
+                        WeatherProvider.sLocationSettingWithStartDateSelection),
+                TestUtilities.TEST_LOCATION, TEST_DAY);
+    }
+
+    public void testWeatherWithLocation() {
+        assertIndexed("weather/* by location id, joined",
+                joinQuery(FORECAST_COLUMNS, WeatherProvider.sLocationIdSelection), "1");
+        assertIndexed("weather/* by location id",
+                weatherQuery(WEATHER_ONLY_COLUMNS, WeatherProvider.sLocationIdSelection), "1");
+        assertIndexed("weather/* by location setting",
+                joinQuery(FORECAST_COLUMNS, WeatherProvider.sLocationSettingSelection),
+                TestUtilities.TEST_LOCATION);
+    }
+
+    public void testWeatherWithLocationAndDate() {
+        assertIndexed("weather/*/# by location id, joined",
+                joinQuery(null, WeatherProvider.sLocationIdAndDaySelection), "1", TEST_DAY);
+        assertIndexed("weather/*/# by location id",
+                weatherQuery(null, WeatherProvider.sLocationIdAndDaySelection), "1", TEST_DAY);
+        assertIndexed("weather/*/# by location setting",
+                joinQuery(null, WeatherProvider.sLocationSettingAndDaySelection),
+                TestUtilities.TEST_LOCATION, TEST_DAY);
+    }
+
+    public void testLocationBySetting() {
+        assertIndexed("location by setting",
+                SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                        new String[]{LocationEntry._ID},
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        null, null, null, null),
+                TestUtilities.TEST_LOCATION);
+    }
+
+    public void testLocationSearch() {
+        // The full-text index finds the words, and each location is then looked up by _id
+        assertIndexed("location/search",
+                SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                        new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING,
+                                LocationEntry.COLUMN_CITY_NAME},
+                        WeatherProvider.sLocationSearchSelection, null, null, null, "10"),
+                WeatherProvider.buildMatchQuery("Mountain Vi"));
+    }
+
+    public void testNearestLocations() {
+        // Counting the locations near enough only reads the coordinate index.  The box that's
+        // then sorted by distance is left to sort, since it only holds a few locations.
+        List<String> args = new ArrayList<String>();
+        String sql = "SELECT COUNT(*) FROM " + LocationEntry.TABLE_NAME + " WHERE "
+                + NearestLocations.buildBoxSelection(64.7488, -147.353, 0.5, args) + " AND "
+                + NearestLocations.buildDistanceExpression(64.7488, -147.353, args) + " <= 0.25";
+        assertIndexed("location/nearest box", sql, args.toArray(new String[args.size()]));
+        args.clear();
+        sql = "SELECT COUNT(*) FROM " + LocationEntry.TABLE_NAME + " WHERE "
+                + NearestLocations.buildBoxSelection(-17.7, 179.9, 0.5, args);
+        assertIndexed("location/nearest box across the antimeridian", sql,
+                args.toArray(new String[args.size()]));
+    }
+
+    public void testSyncWrites() {
+        // The upsert reads a location's days
+        assertIndexed("upsert lookup", "SELECT * FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherEntry.COLUMN_LOC_KEY + " = ?", "1");
+        // and the sync deletes the days that have passed, on the decoded date
+        String selection = WeatherEntry.COLUMN_DATE + " <= ?";
+        String[] selectionArgs = {"1419033600000"};
+        assertIndexed("delete of old days", "SELECT " + WeatherEntry._ID + " FROM "
+                + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherCodec.buildStoredSelection(selection, selectionArgs),
+                WeatherCodec.buildStoredSelectionArgs(selection, selectionArgs));
+        // A delete of one location's weather, alone or with the days that have passed
+        selection = WeatherEntry.COLUMN_LOC_KEY + " = ?";
+        selectionArgs = new String[]{"1"};
+        assertIndexed("delete of a location's days", "SELECT " + WeatherEntry._ID + " FROM "
+                + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherCodec.buildStoredSelection(selection, selectionArgs),
+                WeatherCodec.buildStoredSelectionArgs(selection, selectionArgs));
+        selection = WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " <= ?";
+        selectionArgs = new String[]{"1", "1419033600000"};
+        assertIndexed("delete of a location's old days", "SELECT " + WeatherEntry._ID + " FROM "
+                + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherCodec.buildStoredSelection(selection, selectionArgs),
+                WeatherCodec.buildStoredSelectionArgs(selection, selectionArgs));
+    }
+}
@@ -34,8 +34,15 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_STATS_WITH_LOCATION_DIR = WeatherContract.StatsEntry.buildStatsUri(LOCATION_QUERY, TEST_DATE, TEST_DATE, WeatherContract.StatsEntry.GROUP_WEEK);
     // content://com.example.android.weather.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.weather.app/location/search?q=Lon&limit=10"
+    private static final Uri TEST_LOCATION_SEARCH_DIR = WeatherContract.LocationEntry.buildLocationSearchUri("Lon", 10);
+    // content://com.example.android.weather.app/location/nearest?lat=51.5&lon=-0.1&limit=3"
+    private static final Uri TEST_LOCATION_NEAREST_DIR = WeatherContract.LocationEntry.buildNearestLocationsUri(51.5, -0.1, 3);
+    // content://com.example.android.weather.app/history/London, UK"
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocation(LOCATION_QUERY);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +58,15 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER STATS WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_WITH_LOCATION_DIR), WeatherProvider.WEATHER_STATS_WITH_LOCATION);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SEARCH_DIR), WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The LOCATION NEAREST URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAREST_DIR), WeatherProvider.LOCATION_NEAREST);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
     }
 }
@@ -38,6 +38,7 @@ import java.util.Set;
 public class TestUtilities extends AndroidTestCase {
     static final String TEST_LOCATION = "99705";
     static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
 
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
@@ -111,6 +112,94 @@ public class TestUtilities extends AndroidTestCase {
         return locationRowId;
     }
 
+    /*
+        Deletes every location and day through the provider, and drops the history with them.
+     */
+    static void deleteAllRecords(Context context) {
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        WeatherDbHelper helper = new WeatherDbHelper(context);
+        WeatherHistory.dropAll(helper.getWritableDatabase());
+        helper.close();
+    }
+
+    /*
+        Tests whose every test starts and ends with nothing stored.
+     */
+    static abstract class EmptyDatabaseTestCase extends AndroidTestCase {
+        @Override
+        protected void setUp() throws Exception {
+            super.setUp();
+            deleteAllRecords(mContext);
+        }
+
+        @Override
+        protected void tearDown() throws Exception {
+            deleteAllRecords(mContext);
+            super.tearDown();
+        }
+    }
+
+    static String createLocationSetting(int location) {
+        return Integer.toString(10000 + location);
+    }
+
+    /*
+        A location to be one of many, with a setting and city name of its own.
+     */
+    static ContentValues createLocationValues(int location) {
+        ContentValues locationValues = createNorthPoleLocationValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                createLocationSetting(location));
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + location);
+        return locationValues;
+    }
+
+    /*
+        Inserts many locations straight into the database, in one transaction, which is much
+        quicker than one insert each through the provider.
+     */
+    static long[] insertLocations(Context context, ContentValues[] locations) {
+        long[] locationIds = new long[locations.length];
+        WeatherDbHelper dbHelper = new WeatherDbHelper(context);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < locations.length; i++) {
+                locationIds[i] = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                        locations[i]);
+                assertTrue("Error: Failure to insert location " + i, locationIds[i] != -1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        dbHelper.close();
+        return locationIds;
+    }
+
+    static long[] insertLocations(Context context, int count) {
+        ContentValues[] locations = new ContentValues[count];
+        for (int location = 0; location < count; location++) {
+            locations[location] = createLocationValues(location);
+        }
+        return insertLocations(context, locations);
+    }
+
+    /*
+        Every location's weather for dayCount days from the test date on.
+     */
+    static WeatherBatch createWeatherBatch(long[] locationIds, int dayCount) {
+        WeatherBatch batch = new WeatherBatch(locationIds.length * dayCount);
+        for (long locationId : locationIds) {
+            for (int day = 0; day < dayCount; day++) {
+                batch.add(locationId, TEST_DATE + day * DAY_IN_MILLIS, 321, "Asteroids",
+                        65 - day % 10, 75 + day % 10, 1.2, 1.3, 5.5, 1.1);
+            }
+        }
+        return batch;
+    }
+
     /*
         Students: The functions we provide inside of TestProvider use this utility class to test
         the ContentObserver callbacks using the PollingCheck class that we grabbed from the Android
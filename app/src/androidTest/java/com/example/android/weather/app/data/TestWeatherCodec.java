@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that weather is stored encoded, and that the provider reads it back exactly as it
+    was written.
+ */
+public class TestWeatherCodec extends TestUtilities.EmptyDatabaseTestCase {
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + day * TestUtilities.DAY_IN_MILLIS);
+    }
+
+    private long insertWeather() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        WeatherBatch batch = new WeatherBatch(2);
+        batch.add(locationId, getDate(0), 800, "Clear", -12.34, 0.05, 99.99, 1013.25, 0.1, 359.9);
+        batch.add(locationId, getDate(1), 321, "Asteroids", 65, 75, 1.2, 1.3, 5.5, 1.1);
+        batch.insert(mContext.getContentResolver(), false);
+        return locationId;
+    }
+
+    public void testDates() {
+        long date = getDate(0);
+        int julianDay = WeatherCodec.getJulianDay(date);
+        assertEquals(date, WeatherCodec.getDate(julianDay));
+        assertEquals(julianDay,
+                WeatherCodec.getJulianDay(date + TestUtilities.DAY_IN_MILLIS / 2));
+        assertEquals(julianDay, WeatherCodec.getFirstJulianDay(date));
+        assertEquals("Error: A range starting after midnight starts the next day",
+                julianDay + 1, WeatherCodec.getFirstJulianDay(date + 1));
+        assertEquals(julianDay, WeatherCodec.getLastJulianDay(date + 1));
+        assertEquals(Integer.MAX_VALUE, WeatherCodec.getLastJulianDay(Long.MAX_VALUE));
+    }
+
+    public void testDescriptions() {
+        assertEquals("Clear", WeatherCodec.getDescription(800));
+        assertEquals("Clouds", WeatherCodec.getDescription(803));
+        assertEquals("Drizzle", WeatherCodec.getDescription(321));
+        assertNull(WeatherCodec.getDescription(100));
+        assertNull(WeatherCodec.encodeDescription(800, "Clear"));
+        assertEquals("Asteroids", WeatherCodec.encodeDescription(321, "Asteroids"));
+        assertEquals("Clear", WeatherCodec.encodeDescription(100, "Clear"));
+    }
+
+    public void testStoredForm() {
+        insertWeather();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        assertEquals(WeatherCodec.getJulianDay(getDate(0)),
+                cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertTrue("Error: A description that goes with the weather id shouldn't be stored",
+                cursor.isNull(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        assertEquals(-1234, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        assertEquals(101325,
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE)));
+        assertTrue(cursor.moveToNext());
+        assertEquals("Asteroids",
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        cursor.close();
+        db.close();
+    }
+
+    public void testProviderDecodes() {
+        insertWeather();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), null, null,
+                null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(getDate(0), cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals("Clear",
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        assertEquals(-12.34,
+                cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        assertEquals(0.05, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        assertEquals(99.99,
+                cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY)));
+        assertEquals(1013.25,
+                cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE)));
+        assertEquals(359.9, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES)));
+        assertTrue(cursor.moveToNext());
+        assertEquals("Asteroids",
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, getDate(1)),
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_WIND_SPEED}, null,
+                null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(getDate(1), cursor.getLong(0));
+        assertEquals(5.5, cursor.getDouble(1));
+        cursor.close();
+    }
+
+    /*
+        Selections from outside of the provider are on the columns as it reads them
+     */
+    public void testClientSelections() {
+        insertWeather();
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 80.5);
+        assertEquals(1, mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(getDate(1))}));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, WeatherEntry.COLUMN_MAX_TEMP + " > ?",
+                new String[]{"80"}, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(getDate(1), cursor.getLong(0));
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+
+        assertEquals(1, mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(getDate(0))}));
+    }
+
+    public void testStoredSelections() {
+        int julianDay = WeatherCodec.getJulianDay(getDate(0));
+        String[] midnight = {Long.toString(getDate(0))};
+        String[] noon = {Long.toString(getDate(0) + TestUtilities.DAY_IN_MILLIS / 2)};
+        assertEquals("date <= ?", WeatherCodec.buildStoredSelection("date <= ?", midnight));
+        assertEquals("date > ?",
+                WeatherCodec.buildStoredSelection(WeatherEntry.TABLE_NAME + ".DATE>?", noon));
+        assertEquals(Integer.toString(julianDay),
+                WeatherCodec.buildStoredSelectionArgs("date <= ?", noon)[0]);
+        assertEquals(Integer.toString(julianDay + 1),
+                WeatherCodec.buildStoredSelectionArgs("date >= ?", noon)[0]);
+        assertEquals(Integer.toString(julianDay),
+                WeatherCodec.buildStoredSelectionArgs("date = ?", midnight)[0]);
+        assertEquals("Error: No stored day decodes to a time after midnight",
+                "-1", WeatherCodec.buildStoredSelectionArgs("date = ?", noon)[0]);
+
+        // The location is stored as it is, and can be combined with the date
+        String[] location = {"7", noon[0]};
+        assertEquals("location_id = ?",
+                WeatherCodec.buildStoredSelection("weather.location_id = ?", new String[]{"7"}));
+        assertEquals("location_id = ? AND date <= ?",
+                WeatherCodec.buildStoredSelection("location_id = ? and date <= ?", location));
+        String[] storedArgs =
+                WeatherCodec.buildStoredSelectionArgs("location_id = ? AND date <= ?", location);
+        assertEquals("7", storedArgs[0]);
+        assertEquals(Integer.toString(julianDay), storedArgs[1]);
+
+        // Anything else is left to the decoded columns
+        assertTrue(WeatherCodec.buildStoredSelection("date <= ? AND max > 80", midnight)
+                .contains(WeatherCodec.DECODED_TABLE));
+        assertTrue(WeatherCodec.buildStoredSelection("date <= ?", new String[]{"today"})
+                .contains(WeatherCodec.DECODED_TABLE));
+        assertTrue(WeatherCodec.buildStoredSelection("location_id = ? OR date <= ?", location)
+                .contains(WeatherCodec.DECODED_TABLE));
+    }
+
+    public void testStoredSortOrder() {
+        assertEquals("weather.date ASC, short_desc",
+                WeatherCodec.buildStoredSortOrder("date ASC, short_desc"));
+        assertEquals("weather.max DESC",
+                WeatherCodec.buildStoredSortOrder(WeatherEntry.TABLE_NAME + ".max DESC"));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.weather.app.data.WeatherContract.HistoryEntry;
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the days that have passed move into the monthly history tables, and that the
+    months past the retention are dropped.  The dates are relative to now, since that's what
+    the retention is measured from.
+ */
+public class TestWeatherHistory extends TestUtilities.EmptyDatabaseTestCase {
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    private long daysAgo(int days) {
+        return WeatherContract.normalizeDate(mToday - days * TestUtilities.DAY_IN_MILLIS);
+    }
+
+    // Today, and two days that are in two earlier months whatever today is
+    private void insertWeather(long locationId) {
+        ContentValues[] values = new ContentValues[3];
+        long[] dates = {mToday, daysAgo(40), daysAgo(75)};
+        for (int i = 0; i < dates.length; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, dates[i]);
+        }
+        assertEquals(3, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    private int archivePastDays(int retainMonths) {
+        return mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherArchiveUri(retainMonths),
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(daysAgo(1))});
+    }
+
+    private Cursor queryHistory(long startDate, long endDate) {
+        return mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationWithDateRange(TestUtilities.TEST_LOCATION,
+                        startDate, endDate),
+                null, null, null, null);
+    }
+
+    public void testMonths() {
+        assertEquals(201601, WeatherHistory.addMonths(201512, 1));
+        assertEquals(201512, WeatherHistory.addMonths(201601, -1));
+        assertEquals(201403, WeatherHistory.addMonths(201503, -12));
+        assertEquals(201512, WeatherHistory.getMonth(WeatherHistory.getMonthStart(201512)));
+        assertEquals(201511, WeatherHistory.getMonth(WeatherHistory.getMonthStart(201512) - 1));
+    }
+
+    public void testArchive() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        insertWeather(locationId);
+        assertEquals("Error: Both past days should have been archived", 2, archivePastDays(12));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Only today should be left in the forecast", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = queryHistory(0, mToday);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(daysAgo(75), cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals("Asteroids",
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        cursor.close();
+
+        cursor = queryHistory(daysAgo(45), daysAgo(35));
+        assertEquals("Error: The range should only include one day", 1, cursor.getCount());
+        cursor.close();
+
+        // The same days archived again replace what's there
+        insertWeather(locationId);
+        assertEquals(2, archivePastDays(12));
+        cursor = queryHistory(0, mToday);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testDropExpired() {
+        insertWeather(TestUtilities.insertNorthPoleLocationValues(mContext));
+        archivePastDays(12);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals(2, WeatherHistory.getMonths(db).size());
+        db.close();
+
+        // Keeping no months besides this one drops both, without any rows to archive
+        assertEquals(0, archivePastDays(0));
+        db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertTrue(WeatherHistory.getMonths(db).isEmpty());
+        db.close();
+
+        Cursor cursor = queryHistory(0, mToday);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testUnknownLocation() {
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation("nowhere"), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+}
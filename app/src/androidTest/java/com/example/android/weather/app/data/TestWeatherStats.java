@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.weather.app.data.WeatherContract.StatsEntry;
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+
+/*
+    Checks the statistics the provider works out for the stats URI, over two weeks of weather
+    from Monday the 7th of December 2015, where each day's min is its index and its max ten
+    more than that.
+ */
+public class TestWeatherStats extends TestUtilities.EmptyDatabaseTestCase {
+
+    private static final int DAY_COUNT = 14;
+
+    private long[] mDates;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2015, Calendar.DECEMBER, 7);
+        mDates = new long[DAY_COUNT];
+        ContentValues[] values = new ContentValues[DAY_COUNT];
+        for (int day = 0; day < DAY_COUNT; day++) {
+            mDates[day] = calendar.getTimeInMillis();
+            values[day] = TestUtilities.createWeatherValues(locationId);
+            values[day].put(WeatherEntry.COLUMN_DATE, mDates[day]);
+            values[day].put(WeatherEntry.COLUMN_MIN_TEMP, day);
+            values[day].put(WeatherEntry.COLUMN_MAX_TEMP, day + 10);
+            values[day].put(WeatherEntry.COLUMN_WIND_SPEED, day);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private Cursor queryStats(long fromDate, long toDate, String group) {
+        return mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, fromDate, toDate, group),
+                null, null, null, null);
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndex(column));
+    }
+
+    private void validateWeeks(Cursor cursor) {
+        assertEquals("Error: Two weeks should give two rows", 2, cursor.getCount());
+        for (int week = 0; week < 2; week++) {
+            assertTrue(cursor.moveToPosition(week));
+            assertEquals(mDates[week * 7],
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_START_DATE)));
+            assertEquals(mDates[week * 7 + 6],
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_END_DATE)));
+            assertEquals(7, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+            assertEquals(week * 7.0, getDouble(cursor, StatsEntry.COLUMN_MIN_TEMP));
+            assertEquals(week * 7 + 16.0, getDouble(cursor, StatsEntry.COLUMN_MAX_TEMP));
+            assertEquals(week * 7 + 3.0, getDouble(cursor, StatsEntry.COLUMN_AVG_MIN_TEMP), 1e-9);
+            assertEquals(week * 7 + 6.0, getDouble(cursor, StatsEntry.COLUMN_MAX_WIND_SPEED));
+        }
+    }
+
+    public void testDays() {
+        Cursor cursor = queryStats(mDates[0], mDates[DAY_COUNT - 1], StatsEntry.GROUP_DAY);
+        assertEquals(DAY_COUNT, cursor.getCount());
+        cursor.close();
+
+        cursor = queryStats(mDates[2], mDates[3], StatsEntry.GROUP_DAY);
+        assertEquals("Error: The range should only include two days", 2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(2.0, getDouble(cursor, StatsEntry.COLUMN_MIN_TEMP));
+        cursor.close();
+    }
+
+    public void testWeeks() {
+        Cursor cursor = queryStats(mDates[0], mDates[DAY_COUNT - 1], StatsEntry.GROUP_WEEK);
+        validateWeeks(cursor);
+        cursor.close();
+    }
+
+    public void testMonths() {
+        Cursor cursor = queryStats(mDates[0], mDates[DAY_COUNT - 1], StatsEntry.GROUP_MONTH);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(DAY_COUNT, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+        assertEquals(6.5, getDouble(cursor, StatsEntry.COLUMN_AVG_MIN_TEMP), 1e-9);
+        assertEquals(16.5, getDouble(cursor, StatsEntry.COLUMN_AVG_MAX_TEMP), 1e-9);
+        cursor.close();
+    }
+
+    public void testIncludesHistory() {
+        // Archive the first week, keeping far more history than the test needs
+        mContext.getContentResolver().delete(WeatherEntry.buildWeatherArchiveUri(1000),
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(mDates[6])});
+
+        Cursor cursor = queryStats(mDates[0], mDates[DAY_COUNT - 1], StatsEntry.GROUP_WEEK);
+        validateWeeks(cursor);
+        cursor.close();
+    }
+
+    public void testUnknownLocation() {
+        Cursor cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri("nowhere", mDates[0], mDates[DAY_COUNT - 1],
+                        StatsEntry.GROUP_WEEK),
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+}
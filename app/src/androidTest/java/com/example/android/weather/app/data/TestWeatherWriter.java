@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that WeatherBatch rows written with compiled statements match the ones bulkInsert
+    writes, and reports how much quicker than an insert per ContentValues that is.
+ */
+public class TestWeatherWriter extends TestUtilities.EmptyDatabaseTestCase {
+
+    public static final String LOG_TAG = TestWeatherWriter.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 50;
+    private static final int DAY_COUNT = 365;
+
+    // Well under what the writer manages, so a slow or busy device doesn't fail it
+    private static final double MIN_SPEEDUP = 1.5;
+
+    private static long countWeather(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME);
+    }
+
+    public void testWriterMatchesInsert() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        WeatherBatch batch = TestUtilities.createWeatherBatch(new long[]{locationId}, 1);
+
+        // The batch's date isn't normalized, so this checks the writer does it
+        ContentValues expected = batch.toContentValues()[0];
+        expected.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+
+        assertEquals(1, batch.insert(mContext.getContentResolver(), false));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        TestUtilities.validateCursor("Error: Batch row doesn't match its values",
+                cursor, expected);
+    }
+
+    public void testBatchUpsert() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        WeatherBatch batch = TestUtilities.createWeatherBatch(new long[]{locationId}, 14);
+
+        assertEquals(14, batch.insert(mContext.getContentResolver(), true));
+        assertEquals("Error: An unchanged batch shouldn't write anything",
+                0, batch.insert(mContext.getContentResolver(), true));
+
+        WeatherBatch changed = TestUtilities.createWeatherBatch(new long[]{locationId}, 14);
+        changed.add(locationId, TestUtilities.TEST_DATE, 800, "Clear", 1, 2, 3, 4, 5, 6);
+        assertEquals("Error: Only the changed day should be written",
+                1, changed.insert(mContext.getContentResolver(), true));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(14, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * @return how long it took to insert every row the way bulkInsert used to, with an
+     * SQLiteDatabase.insert() of each ContentValues
+     */
+    private static long insertEach(SQLiteDatabase db, ContentValues[] values) {
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                db.insert(WeatherEntry.TABLE_NAME, null, WeatherCodec.encode(value));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return how long it took the writer to insert every row of the batch
+     */
+    private static long writeBatch(SQLiteDatabase db, WeatherBatch batch) {
+        long start = System.nanoTime();
+        db.beginTransaction();
+        WeatherWriter writer = new WeatherWriter(db);
+        try {
+            assertEquals(batch.size(), writer.write(batch, false));
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            db.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    @LargeTest
+    public void testWriterThroughput() {
+        WeatherBatch batch = TestUtilities.createWeatherBatch(
+                TestUtilities.insertLocations(mContext, LOCATION_COUNT), DAY_COUNT);
+        ContentValues[] values = batch.toContentValues();
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long insertNanos = insertEach(db, values);
+        assertEquals(batch.size(), countWeather(db));
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+
+        long writerNanos = writeBatch(db, batch);
+        assertEquals(batch.size(), countWeather(db));
+        db.close();
+
+        double insertRate = batch.size() / (insertNanos / 1e9);
+        double writerRate = batch.size() / (writerNanos / 1e9);
+        String rates = String.format("%d rows: SQLiteDatabase.insert %.0f rows/s, " +
+                "WeatherWriter %.0f rows/s", batch.size(), insertRate, writerRate);
+        Log.i(LOG_TAG, rates);
+        assertTrue("Error: The writer should be at least " + MIN_SPEEDUP + " times quicker. " +
+                rates, writerRate >= insertRate * MIN_SPEEDUP);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.sync;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Checks that the streaming forecast parser reads the same values as the org.json one, turns
+    down the same incomplete days, and holds on to no more memory for a large forecast than a
+    small one, unlike the org.json tree.  JsonReader is only on devices, so this compares the
+    two here rather than on the JVM.
+ */
+public class TestForecastStreamParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastStreamParser.class.getSimpleName();
+
+    // A day with every value we keep, each followed by a comma so any of them can be cut out
+    private static final String COMPLETE_DAY = "{\"dt\":1419120000,"
+            + "\"temp\":{\"max\":25.0,\"min\":10.0,\"day\":20.0},"
+            + "\"pressure\":1015.5,\"humidity\":40,"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"icon\":\"01d\"}],"
+            + "\"speed\":1.5,\"deg\":90,\"clouds\":0}";
+
+    private static final String[] REQUIRED_DAY_VALUES = {
+            "\"max\":25.0,", "\"min\":10.0,", "\"pressure\":1015.5,", "\"humidity\":40,",
+            "\"id\":800,", "\"main\":\"Clear\",", "\"speed\":1.5,", "\"deg\":90,"
+    };
+
+    // More memory than the streaming parser should ever keep, and less than the org.json tree
+    // of the largest forecast takes
+    private static final long MAX_STREAMING_GROWTH_BYTES = 256 * 1024;
+    private static final long MIN_TREE_GROWTH_BYTES = 1024 * 1024;
+
+    static String createForecastJson(int numDays) {
+        StringBuilder json = new StringBuilder(256 * numDays + 256);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0113,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f,"
+                            + "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"%s\",\"description\":\"sky is clear\","
+                            + "\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":0}",
+                    1419120000L + i * 86400L,
+                    20.0 + i % 7, 10.0 - i % 5, 25.0 + i % 9, 12.5, 18.25, 11.75,
+                    1000.0 + i % 30, 40 + i % 60,
+                    800 + i % 5, i % 2 == 0 ? "Clear" : "Clouds",
+                    1.5 + i % 10, (i * 37) % 360));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static class RecordingCallback implements ForecastStreamParser.Callback {
+        String cityName;
+        double lat;
+        double lon;
+        final List<String> days = new ArrayList<String>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(int index, ForecastStreamParser.DayForecast day) {
+            days.add(index + ":" + day.pressure + ":" + day.humidity + ":" + day.windSpeed + ":"
+                    + day.windDirection + ":" + day.high + ":" + day.low + ":" + day.description
+                    + ":" + day.weatherId);
+        }
+    }
+
+    // Keeps the benchmark from measuring the cost of recording every value
+    static class CountingCallback implements ForecastStreamParser.Callback {
+        int days;
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+        }
+
+        @Override
+        public void onDay(int index, ForecastStreamParser.DayForecast day) {
+            days++;
+        }
+    }
+
+    public void testStreamingMatchesJsonObject() throws Throwable {
+        String json = createForecastJson(14);
+
+        RecordingCallback streamed = new RecordingCallback();
+        int streamedCode = new ForecastStreamParser().parse(new StringReader(json), streamed);
+
+        RecordingCallback tree = new RecordingCallback();
+        int treeCode = new ForecastStreamParser().parse(json, tree);
+
+        assertEquals(HttpURLConnection.HTTP_OK, streamedCode);
+        assertEquals(treeCode, streamedCode);
+        assertEquals("Mountain View", streamed.cityName);
+        assertEquals(tree.cityName, streamed.cityName);
+        assertEquals(tree.lat, streamed.lat);
+        assertEquals(tree.lon, streamed.lon);
+        assertEquals(14, streamed.days.size());
+        assertEquals(tree.days, streamed.days);
+    }
+
+    public void testErrorCode() throws Throwable {
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        CountingCallback callback = new CountingCallback();
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                new ForecastStreamParser().parse(new StringReader(json), callback));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                new ForecastStreamParser().parse(json, callback));
+        assertEquals(0, callback.days);
+    }
+
+    private static String createForecastJsonWithDay(String day) {
+        return "{\"city\":{\"name\":\"Mountain View\","
+                + "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051}},"
+                + "\"cod\":\"200\",\"list\":[" + day + "]}";
+    }
+
+    public void testIncompleteDayIsRejected() throws Throwable {
+        String json = createForecastJsonWithDay(COMPLETE_DAY);
+        CountingCallback callback = new CountingCallback();
+        new ForecastStreamParser().parse(new StringReader(json), callback);
+        new ForecastStreamParser().parse(json, callback);
+        assertEquals(2, callback.days);
+
+        for (String value : REQUIRED_DAY_VALUES) {
+            json = createForecastJsonWithDay(COMPLETE_DAY.replace(value, ""));
+            try {
+                new ForecastStreamParser().parse(new StringReader(json), callback);
+                fail("Error: The streaming parser took a day without " + value);
+            } catch (JSONException expected) {
+            }
+            try {
+                new ForecastStreamParser().parse(json, callback);
+                fail("Error: The org.json parser took a day without " + value);
+            } catch (JSONException expected) {
+            }
+        }
+        assertEquals("Error: No incomplete day should have been stored", 2, callback.days);
+    }
+
+    /*
+        Measures how much more of the heap is in use than before the parse, once the last day
+        has been read, after collecting whatever garbage the parse made on the way.  That's
+        what the parser is keeping hold of while it works.
+     */
+    static class HeapCallback implements ForecastStreamParser.Callback {
+        final int lastIndex;
+        final long heapBefore;
+        long heapGrowth;
+
+        HeapCallback(int numDays) {
+            lastIndex = numDays - 1;
+            heapBefore = getUsedHeap();
+        }
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+        }
+
+        @Override
+        public void onDay(int index, ForecastStreamParser.DayForecast day) {
+            if (index == lastIndex) {
+                heapGrowth = getUsedHeap() - heapBefore;
+            }
+        }
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 2; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long measureHeapGrowth(String json, int numDays, boolean streaming)
+            throws Throwable {
+        HeapCallback callback = new HeapCallback(numDays);
+        if (streaming) {
+            new ForecastStreamParser().parse(new StringReader(json), callback);
+        } else {
+            new ForecastStreamParser().parse(json, callback);
+        }
+        return callback.heapGrowth;
+    }
+
+    @LargeTest
+    public void testStreamingHeapStaysFlat() throws Throwable {
+        String smallJson = createForecastJson(14);
+        String largeJson = createForecastJson(5000);
+        // Run each once first, so the classes they load aren't counted
+        measureHeapGrowth(smallJson, 14, true);
+        measureHeapGrowth(smallJson, 14, false);
+
+        long streamedSmall = measureHeapGrowth(smallJson, 14, true);
+        long streamedLarge = measureHeapGrowth(largeJson, 5000, true);
+        long treeSmall = measureHeapGrowth(smallJson, 14, false);
+        long treeLarge = measureHeapGrowth(largeJson, 5000, false);
+        String growth = String.format(Locale.US, "heap held while parsing 14 / 5000 days: "
+                        + "JsonReader %d / %d bytes, org.json %d / %d bytes",
+                streamedSmall, streamedLarge, treeSmall, treeLarge);
+        Log.i(LOG_TAG, growth);
+
+        assertTrue("Error: The streaming parser held more for more days. " + growth,
+                streamedLarge - streamedSmall < MAX_STREAMING_GROWTH_BYTES);
+        assertTrue("Error: The org.json tree should grow with the days. " + growth,
+                treeLarge - treeSmall > MIN_TREE_GROWTH_BYTES);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestSyncBackoff extends AndroidTestCase {
+
+    private static final long START = 1419120000000L;
+
+    private void deleteBackoff() {
+        mContext.getSharedPreferences(SyncBackoff.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteBackoff();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteBackoff();
+        super.tearDown();
+    }
+
+    public void testBackoffGrowsWithJitter() {
+        long now = START;
+        assertTrue(SyncBackoff.tryAcquire(mContext, now));
+
+        for (int failure = 1; failure < SyncBackoff.FAILURE_THRESHOLD; failure++) {
+            long nextAttempt = SyncBackoff.recordResult(mContext, false, now);
+            long delay = SyncBackoff.INITIAL_BACKOFF_MILLIS << (failure - 1);
+            assertTrue("Backoff after " + failure + " failures should be at least half the delay",
+                    nextAttempt - now >= delay / 2);
+            assertTrue("Backoff after " + failure + " failures should be at most the delay",
+                    nextAttempt - now <= delay);
+            assertEquals(SyncBackoff.STATE_CLOSED, SyncBackoff.getState(mContext));
+
+            assertFalse("Syncs should be skipped while backing off",
+                    SyncBackoff.tryAcquire(mContext, nextAttempt - 1));
+            now = nextAttempt;
+            assertTrue(SyncBackoff.tryAcquire(mContext, now));
+        }
+
+        // A success forgets about all of it
+        assertEquals(0, SyncBackoff.recordResult(mContext, true, now));
+        assertEquals(0, SyncBackoff.getConsecutiveFailures(mContext));
+        assertTrue(SyncBackoff.tryAcquire(mContext, now));
+    }
+
+    public void testCircuitOpensAndProbes() {
+        long now = START;
+        long nextAttempt = 0;
+        for (int failure = 1; failure <= SyncBackoff.FAILURE_THRESHOLD; failure++) {
+            assertTrue(SyncBackoff.tryAcquire(mContext, now));
+            nextAttempt = SyncBackoff.recordResult(mContext, false, now);
+            now = nextAttempt;
+        }
+        assertEquals(SyncBackoff.STATE_OPEN, SyncBackoff.getState(mContext));
+        assertFalse(SyncBackoff.tryAcquire(mContext, nextAttempt - 1));
+
+        // Once the circuit's time is up, exactly one sync gets through as the probe
+        assertTrue(SyncBackoff.tryAcquire(mContext, nextAttempt));
+        assertEquals(SyncBackoff.STATE_HALF_OPEN, SyncBackoff.getState(mContext));
+        assertFalse("Only one probe should run at a time",
+                SyncBackoff.tryAcquire(mContext, nextAttempt + 1));
+
+        // A failed probe opens the circuit for longer than before
+        now = nextAttempt;
+        nextAttempt = SyncBackoff.recordResult(mContext, false, now);
+        assertEquals(SyncBackoff.STATE_OPEN, SyncBackoff.getState(mContext));
+        assertTrue(nextAttempt - now >= SyncBackoff.INITIAL_OPEN_MILLIS);
+
+        // A probe that never reports back is replaced
+        assertTrue(SyncBackoff.tryAcquire(mContext, nextAttempt));
+        assertFalse(SyncBackoff.tryAcquire(mContext, nextAttempt + 1));
+        assertTrue(SyncBackoff.tryAcquire(mContext,
+                nextAttempt + SyncBackoff.PROBE_TIMEOUT_MILLIS));
+
+        // and a successful probe closes the circuit
+        SyncBackoff.recordResult(mContext, true, nextAttempt + SyncBackoff.PROBE_TIMEOUT_MILLIS);
+        assertEquals(SyncBackoff.STATE_CLOSED, SyncBackoff.getState(mContext));
+        assertTrue(SyncBackoff.tryAcquire(mContext, nextAttempt + SyncBackoff.PROBE_TIMEOUT_MILLIS));
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+
+    public void testInterval() {
+        // Nothing changed and nobody has looked for days
+        int idle = SyncScheduler.computeInterval(14, 0, HOUR_IN_MILLIS, 72 * HOUR_IN_MILLIS,
+                false);
+        // Everything changed and the app is open
+        int busy = SyncScheduler.computeInterval(14, 14, 0, 0, false);
+        // Somewhere in between
+        int usual = SyncScheduler.computeInterval(14, 7, 0, 6 * HOUR_IN_MILLIS, false);
+
+        assertEquals(SyncScheduler.MAX_SYNC_INTERVAL, idle);
+        assertEquals(SyncScheduler.MIN_SYNC_INTERVAL, busy);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, usual);
+
+        assertTrue("Widgets on the home screen should keep the forecast fresher",
+                SyncScheduler.computeInterval(14, 7, 0, 6 * HOUR_IN_MILLIS, true) < usual);
+        assertTrue("A stale forecast should be synced sooner",
+                SyncScheduler.computeInterval(14, 0, 12 * HOUR_IN_MILLIS, 6 * HOUR_IN_MILLIS, false)
+                        < SyncScheduler.computeInterval(14, 0, 0, 6 * HOUR_IN_MILLIS, false));
+        assertEquals("A sync that fetched nothing counts as nothing changing",
+                SyncScheduler.computeInterval(14, 0, 0, 6 * HOUR_IN_MILLIS, false),
+                SyncScheduler.computeInterval(0, 0, 0, 6 * HOUR_IN_MILLIS, false));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class TestSyncStats extends AndroidTestCase {
+
+    private void deleteStats() {
+        mContext.getSharedPreferences(SyncStats.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteStats();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteStats();
+        super.tearDown();
+    }
+
+    public void testTransferRing() {
+        int total = SyncStats.TRANSFER_CAPACITY + 5;
+        for (int i = 0; i < total; i++) {
+            SyncStats.recordTransfer(mContext, i % 2 == 0 ? "94043" : "a|b", i, i * 10);
+        }
+
+        List<SyncStats.Transfer> transfers = SyncStats.getRecentTransfers(mContext);
+        assertEquals("Ring should hold only the latest transfers",
+                SyncStats.TRANSFER_CAPACITY, transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            long expected = total - SyncStats.TRANSFER_CAPACITY + i;
+            SyncStats.Transfer transfer = transfers.get(i);
+            assertEquals("Transfers should be oldest first", expected, transfer.wireBytes);
+            assertEquals(expected * 10, transfer.decodedBytes);
+            assertEquals(expected % 2 == 0 ? "94043" : "a|b", transfer.locationSetting);
+        }
+
+        long[] bytes = SyncStats.getTransferredBytes(mContext, "a|b", 0);
+        long wire = 0;
+        for (int i = total - SyncStats.TRANSFER_CAPACITY; i < total; i++) {
+            if (i % 2 != 0) wire += i;
+        }
+        assertEquals(wire, bytes[0]);
+        assertEquals(wire * 10, bytes[1]);
+    }
+
+    public void testCountingGzipStream() throws Throwable {
+        String json = TestForecastStreamParser.createForecastJson(14);
+        byte[] plain = json.getBytes("UTF-8");
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(plain);
+        gzip.close();
+        byte[] wire = compressed.toByteArray();
+
+        CountingInputStream wireStream =
+                new CountingInputStream(new ByteArrayInputStream(wire));
+        CountingInputStream decodedStream =
+                new CountingInputStream(new GZIPInputStream(wireStream));
+        Reader reader = new InputStreamReader(decodedStream, "UTF-8");
+        StringBuilder decoded = new StringBuilder();
+        char[] buffer = new char[1024];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            decoded.append(buffer, 0, read);
+        }
+        reader.close();
+
+        assertEquals(json, decoded.toString());
+        assertEquals(plain.length, decodedStream.getCount());
+        assertEquals(wire.length, wireStream.getCount());
+        assertTrue("The forecast should compress", wireStream.getCount() < plain.length);
+    }
+}
@@ -171,7 +171,8 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         if ( null != mUri ) {
             // Now create and return a CursorLoader that will take care of
-            // creating a Cursor for the data being displayed.
+            // creating a Cursor for the data being displayed.  The provider tells the URI
+            // about changes to this day, so writes to other days and locations leave it be.
             return new CursorLoader(
                     getActivity(),
                     mUri,
@@ -27,6 +27,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
+import com.example.android.weather.app.data.PagedCursor;
 import com.example.android.weather.app.data.WeatherContract;
 
 /**
@@ -71,6 +72,10 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
             mCursor.moveToPosition(adapterPosition);
+            if (isRowLoading()) {
+                // Nothing to show for a day that hasn't been read yet
+                return;
+            }
             int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
             mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
             mICM.onClick(this);
@@ -122,6 +127,20 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
         mCursor.moveToPosition(position);
+        if (isRowLoading()) {
+            // Blank until its page arrives, when the row is bound again
+            Glide.clear(forecastAdapterViewHolder.mIconView);
+            forecastAdapterViewHolder.mIconView.setImageDrawable(null);
+            forecastAdapterViewHolder.mDateView.setText(null);
+            forecastAdapterViewHolder.mDescriptionView.setText(null);
+            forecastAdapterViewHolder.mDescriptionView.setContentDescription(null);
+            forecastAdapterViewHolder.mHighTempView.setText(null);
+            forecastAdapterViewHolder.mHighTempView.setContentDescription(null);
+            forecastAdapterViewHolder.mLowTempView.setText(null);
+            forecastAdapterViewHolder.mLowTempView.setContentDescription(null);
+            mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+            return;
+        }
         int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
         int defaultImage;
         boolean useLongToday;
@@ -209,8 +228,24 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return mCursor.getCount();
     }
 
+    private boolean isRowLoading() {
+        return mCursor instanceof PagedCursor && ((PagedCursor) mCursor).isRowLoading();
+    }
+
     public void swapCursor(Cursor newCursor) {
+        if (mCursor instanceof PagedCursor) {
+            ((PagedCursor) mCursor).setOnPageLoadedListener(null);
+        }
         mCursor = newCursor;
+        if (mCursor instanceof PagedCursor) {
+            ((PagedCursor) mCursor).setOnPageLoadedListener(
+                    new PagedCursor.OnPageLoadedListener() {
+                        @Override
+                        public void onPageLoaded(int firstPosition, int count) {
+                            notifyItemRangeChanged(firstPosition, count);
+                        }
+                    });
+        }
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
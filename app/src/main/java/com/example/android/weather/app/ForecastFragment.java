@@ -29,7 +29,6 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -46,6 +45,8 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.example.android.weather.app.data.PagedCursor;
+import com.example.android.weather.app.data.PagedCursorLoader;
 import com.example.android.weather.app.data.WeatherContract;
 import com.example.android.weather.app.sync.SunshineSyncAdapter;
 
@@ -64,6 +65,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
+
+    // Writes tell the list about each of its days that changed, so reload at most this often
+    private static final long RELOAD_THROTTLE_MILLIS = 500;
+
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
     private static final String[] FORECAST_COLUMNS = {
@@ -309,20 +314,22 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         // To only show current and future dates, filter the query to return weather only for
         // dates after or including today.
-
-        // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-
         String locationSetting = Utility.getPreferredLocation(getActivity());
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        // The days come a page at a time, in ascending order by date, as the list scrolls to
+        // them, so that however many there are only a few pages are held at once.  The loader
+        // only hears about changes to this location's days, not to the other locations'.
+        PagedCursorLoader loader = new PagedCursorLoader(getActivity(),
                 weatherForLocationUri,
-                FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
+                FORECAST_COLUMNS);
+        loader.setUpdateThrottle(RELOAD_THROTTLE_MILLIS);
+        if (-1 != mInitialSelectedDate) {
+            // Found while loading, so the list doesn't have to read every day before it
+            loader.setFindDate(mInitialSelectedDate);
+        }
+        return loader;
     }
 
     @Override
@@ -343,14 +350,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
                             Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
+                            if (data instanceof PagedCursor) {
+                                position = ((PagedCursor) data).getFoundPosition();
                             }
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
@@ -19,18 +19,45 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
+import android.support.v4.widget.SimpleCursorAdapter;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.FilterQueryProvider;
 
+import com.example.android.weather.app.data.WeatherContract;
+
+/**
+ * The location setting, which suggests the locations we already know about as the user types,
+ * so that a typo can be caught before it costs a sync.
+ */
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
+    static final private int SUGGESTION_LIMIT = 10;
+
+    private static final String[] SUGGESTION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME
+    };
+    // These indices are tied to SUGGESTION_COLUMNS
+    static final private int COL_LOCATION_SETTING = 1;
+
     private int mMinLength;
 
+    // Shown in the dialog in place of the preference's own EditText, whose text it hands back
+    // when the dialog closes
+    private final AutoCompleteTextView mAutoCompleteView;
+    private final SimpleCursorAdapter mSuggestionAdapter;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -42,6 +69,55 @@ public class LocationEditTextPreference extends EditTextPreference {
         } finally {
             a.recycle();
         }
+
+        mAutoCompleteView = new AutoCompleteTextView(context, attrs);
+        mAutoCompleteView.setId(android.R.id.edit);
+        mSuggestionAdapter = new SimpleCursorAdapter(context,
+                android.R.layout.simple_list_item_2, null,
+                new String[]{WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                new int[]{android.R.id.text1, android.R.id.text2}, 0);
+        mSuggestionAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                // Runs on the filter's own thread
+                if (constraint == null) {
+                    return null;
+                }
+                return getContext().getContentResolver().query(
+                        WeatherContract.LocationEntry.buildLocationSearchUri(
+                                constraint.toString(), SUGGESTION_LIMIT),
+                        SUGGESTION_COLUMNS, null, null, null);
+            }
+        });
+        mSuggestionAdapter.setCursorToStringConverter(
+                new SimpleCursorAdapter.CursorToStringConverter() {
+                    @Override
+                    public CharSequence convertToString(Cursor cursor) {
+                        return cursor.getString(COL_LOCATION_SETTING);
+                    }
+                });
+        mAutoCompleteView.setAdapter(mSuggestionAdapter);
+    }
+
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        // The preference has just put its value into its own EditText
+        ViewGroup oldParent = (ViewGroup) mAutoCompleteView.getParent();
+        if (oldParent != null) {
+            oldParent.removeView(mAutoCompleteView);
+        }
+        mAutoCompleteView.setText(editText.getText());
+        super.onAddEditTextToDialogView(dialogView, mAutoCompleteView);
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (positiveResult) {
+            getEditText().setText(mAutoCompleteView.getText());
+        }
+        mSuggestionAdapter.changeCursor(null);
+        super.onDialogClosed(positiveResult);
     }
 
 
@@ -49,7 +125,7 @@ public class LocationEditTextPreference extends EditTextPreference {
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        EditText et = mAutoCompleteView;
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -33,6 +33,7 @@ import android.view.View;
 import com.example.android.weather.app.data.WeatherContract;
 import com.example.android.weather.app.gcm.RegistrationIntentService;
 import com.example.android.weather.app.sync.SunshineSyncAdapter;
+import com.example.android.weather.app.sync.SyncScheduler;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
@@ -135,6 +136,8 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     @Override
     protected void onResume() {
         super.onResume();
+        // Someone's looking, so keep the forecast fresh
+        SyncScheduler.recordViewed(this);
         String location = Utility.getPreferredLocation( this );
         // update the location in our second pane using the fragment manager
             if (location != null && !location.equals(mLocation)) {
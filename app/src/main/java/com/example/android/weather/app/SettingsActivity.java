@@ -48,8 +48,10 @@ public class SettingsActivity extends PreferenceActivity
         // For all preferences, attach an OnPreferenceChangeListener so the UI summary can be
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_other_locations_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_history_key)));
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -136,6 +138,9 @@ public class SettingsActivity extends PreferenceActivity
             // first clear locationStatus
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
+        } else if ( key.equals(getString(R.string.pref_other_locations_key)) ) {
+            // fetch the weather for any locations that were added
+            SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -26,7 +26,9 @@ import com.example.android.weather.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
@@ -36,6 +38,36 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * @return every location the sync adapter keeps up to date: the preferred location
+     * first, followed by the other locations from settings, without duplicates.
+     */
+    public static List<String> getSyncLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        List<String> locations = new ArrayList<String>();
+        locations.add(getPreferredLocation(context));
+
+        String otherLocations =
+                prefs.getString(context.getString(R.string.pref_other_locations_key), "");
+        // Location settings like "London,uk" can contain commas, so these go one per line
+        for (String location : otherLocations.split("\n")) {
+            location = location.trim();
+            if (location.length() > 0 && !locations.contains(location)) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * @return how many whole months of weather history to keep, besides the current month.
+     */
+    public static int getHistoryMonths(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return Integer.parseInt(prefs.getString(context.getString(R.string.pref_history_key),
+                context.getString(R.string.pref_history_default)));
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
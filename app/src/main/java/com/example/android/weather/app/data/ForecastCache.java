@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps copies of the forecast queries the provider answered most recently, for the few
+ * locations it was last asked about.  After a sync the forecast list, the detail view, the
+ * widgets, Muzei, the notification and the watch face all read the same forecast, and only
+ * the first of them needs to go to the database.  It keeps each location's weather for today
+ * as well, which the widgets and the rest read through call() rather than with a query.
+ *
+ * The provider drops a location's copies once a write to its weather commits.  A query that
+ * was already running when that happened may have read the old forecast, so a copy is only
+ * kept if nothing was dropped while it was being read.
+ */
+class ForecastCache {
+
+    static final int MAX_LOCATIONS = 4;
+    // Each location has a few different queries, such as the list and the day in detail
+    static final int MAX_QUERIES_PER_LOCATION = 8;
+    // Anything bigger isn't the forecast that everything shows
+    static final int MAX_ROWS = 60;
+
+    private static class Snapshot {
+        final String[] columnNames;
+        final Object[][] rows;
+
+        Snapshot(String[] columnNames, Object[][] rows) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+    }
+
+    private static class TodaySnapshot {
+        // The day it was read on, since it's stale once that is over
+        final long today;
+        final Bundle values;
+
+        TodaySnapshot(long today, Bundle values) {
+            this.today = today;
+            this.values = values;
+        }
+    }
+
+    private final Map<Long, Map<String, Snapshot>> mLocations = newLruMap(MAX_LOCATIONS);
+    private final Map<Long, TodaySnapshot> mTodays = newLruMap(MAX_LOCATIONS);
+    // Counts the drops, so that put() can tell if one happened while its query ran
+    private long mGeneration;
+    private long mHitCount;
+    private long mMissCount;
+
+    private static <K, V> Map<K, V> newLruMap(final int maxSize) {
+        return new LinkedHashMap<K, V>(maxSize + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return true if the cache can copy cursors on this device, which needs Cursor.getType()
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * @return what tells a location's queries apart
+     */
+    static String buildKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * @return a cursor over the cached copy of the query, or null if there isn't one.
+     */
+    synchronized Cursor get(long locationId, String key) {
+        Map<String, Snapshot> queries = mLocations.get(locationId);
+        Snapshot snapshot = queries != null ? queries.get(key) : null;
+        if (snapshot == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return newCursor(snapshot);
+    }
+
+    /**
+     * @return the value to hand to put() along with what a query about to run returns
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies a query's results, and keeps the copy unless it is too big or the cache was
+     * invalidated since the generation was read.  The cursor is closed if it was copied.
+     *
+     * @return a cursor to hand back in its place
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor put(long locationId, String key, Cursor cursor, long generation) {
+        if (cursor.getCount() > MAX_ROWS) {
+            return cursor;
+        }
+        Snapshot snapshot;
+        try {
+            int columnCount = cursor.getColumnCount();
+            Object[][] rows = new Object[cursor.getCount()][];
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[i] = cursor.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            row[i] = null;
+                    }
+                }
+                rows[cursor.getPosition()] = row;
+            }
+            snapshot = new Snapshot(cursor.getColumnNames(), rows);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                Map<String, Snapshot> queries = mLocations.get(locationId);
+                if (queries == null) {
+                    queries = newLruMap(MAX_QUERIES_PER_LOCATION);
+                    mLocations.put(locationId, queries);
+                }
+                queries.put(key, snapshot);
+            }
+        }
+        return newCursor(snapshot);
+    }
+
+    /**
+     * @return a copy of the location's weather for today, or null if it isn't cached or was
+     * read on an earlier day.
+     */
+    synchronized Bundle getToday(long locationId, long today) {
+        TodaySnapshot snapshot = mTodays.get(locationId);
+        if (snapshot == null || snapshot.today != today) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return new Bundle(snapshot.values);
+    }
+
+    /**
+     * Keeps a location's weather for today, unless the cache was invalidated since the
+     * generation was read.
+     */
+    synchronized void putToday(long locationId, long today, Bundle values, long generation) {
+        if (generation == mGeneration) {
+            // A copy, since in our own process call() hands back the very Bundle it returns
+            mTodays.put(locationId, new TodaySnapshot(today, new Bundle(values)));
+        }
+    }
+
+    private static Cursor newCursor(Snapshot snapshot) {
+        MatrixCursor cursor = new MatrixCursor(snapshot.columnNames, snapshot.rows.length);
+        for (Object[] row : snapshot.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Drops the copies of a location's queries, once a change to its weather has committed.
+     */
+    synchronized void invalidate(long locationId) {
+        mGeneration++;
+        mLocations.remove(locationId);
+        mTodays.remove(locationId);
+    }
+
+    /**
+     * Drops everything, for changes that could have been to any location.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mLocations.clear();
+        mTodays.clear();
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the location table's _id for each location setting, for everything in the app's
+ * process.  The provider fills it when it inserts or looks up a location, and clears it
+ * whenever locations are updated or deleted, or the database is recreated.
+ */
+public class LocationIdCache {
+
+    private static final Map<String, Long> sLocationIds = new HashMap<String, Long>();
+    // The same the other way round, for telling observers which location changed
+    private static final Map<Long, String> sLocationSettings = new HashMap<Long, String>();
+
+    /**
+     * @return the location's _id, or null if it isn't cached
+     */
+    public static synchronized Long get(String locationSetting) {
+        return sLocationIds.get(locationSetting);
+    }
+
+    /**
+     * Caches an _id that was just read from, or written to, the location table.
+     */
+    public static synchronized void put(String locationSetting, long locationId) {
+        sLocationIds.put(locationSetting, locationId);
+        sLocationSettings.put(locationId, locationSetting);
+    }
+
+    /**
+     * @return the setting of the location with the _id, or null if it isn't cached
+     */
+    static synchronized String getLocationSetting(long locationId) {
+        return sLocationSettings.get(locationId);
+    }
+
+    static synchronized void invalidate() {
+        sLocationIds.clear();
+        sLocationSettings.clear();
+    }
+}
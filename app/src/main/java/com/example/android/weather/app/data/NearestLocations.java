@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.weather.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the stored locations nearest to a point.  The location coordinate index is searched for
+ * a box around the point, which is doubled until it holds enough locations, and only the
+ * locations in the box are sorted by distance.
+ *
+ * Distances are measured on the equirectangular projection centred on the point, where a
+ * degree of longitude is shortened by the cosine of the point's latitude.  That's close to the
+ * true distance for the nearby cities this is for, and SQLite can work it out without any
+ * trigonometry.
+ */
+class NearestLocations {
+
+    // About 55km north to south, which is usually enough to find the city a device is in
+    static final double INITIAL_RADIUS_DEGREES = 0.5;
+
+    private NearestLocations() {
+    }
+
+    /**
+     * Adds a value to the arguments of a statement.
+     *
+     * @return the numbered parameter it is bound to, which can be used as often as needed
+     */
+    private static String bind(List<String> args, double value) {
+        args.add(Double.toString(value));
+        return "?" + args.size();
+    }
+
+    /**
+     * @param args the arguments the point is added to, after those of anything before it in the
+     *             statement
+     * @return the squared distance of a location from the point, in degrees of latitude
+     */
+    static String buildDistanceExpression(double latitude, double longitude, List<String> args) {
+        String latitudeDelta = "(" + LocationEntry.COLUMN_COORD_LAT + " - " +
+                bind(args, latitude) + ")";
+        String absLongitudeDelta = "abs(" + LocationEntry.COLUMN_COORD_LONG + " - " +
+                bind(args, longitude) + ")";
+        // The short way around, across the antimeridian if need be
+        String longitudeDelta = "(min(" + absLongitudeDelta + ", 360 - " + absLongitudeDelta +
+                ") * " + bind(args, Math.cos(Math.toRadians(latitude))) + ")";
+        return "(" + latitudeDelta + " * " + latitudeDelta + " + " +
+                longitudeDelta + " * " + longitudeDelta + ")";
+    }
+
+    /**
+     * @param args the arguments the box is added to, after those of anything before it in the
+     *             statement
+     * @return the selection of the locations within radius degrees of the point, north to south
+     * and east to west, which the coordinate index can answer
+     */
+    static String buildBoxSelection(double latitude, double longitude, double radius,
+                                    List<String> args) {
+        String selection = LocationEntry.COLUMN_COORD_LAT + " BETWEEN " +
+                bind(args, latitude - radius) + " AND " + bind(args, latitude + radius);
+        double longitudeScale = Math.cos(Math.toRadians(latitude));
+        if (longitudeScale * 180 <= radius) {
+            // The box goes all the way around
+            return selection;
+        }
+        double west = longitude - radius / longitudeScale;
+        double east = longitude + radius / longitudeScale;
+        if (west < -180) {
+            return selection + " AND (" + LocationEntry.COLUMN_COORD_LONG + " >= " +
+                    bind(args, west + 360) + " OR " + LocationEntry.COLUMN_COORD_LONG + " <= " +
+                    bind(args, east) + ")";
+        }
+        if (east > 180) {
+            return selection + " AND (" + LocationEntry.COLUMN_COORD_LONG + " >= " +
+                    bind(args, west) + " OR " + LocationEntry.COLUMN_COORD_LONG + " <= " +
+                    bind(args, east - 360) + ")";
+        }
+        return selection + " AND " + LocationEntry.COLUMN_COORD_LONG + " BETWEEN " +
+                bind(args, west) + " AND " + bind(args, east);
+    }
+
+    /**
+     * @return true if the box of a radius around the point holds every location
+     */
+    static boolean coversGlobe(double latitude, double radius) {
+        return latitude - radius <= -90 && latitude + radius >= 90
+                && Math.cos(Math.toRadians(latitude)) * 180 <= radius;
+    }
+
+    /**
+     * @return up to count locations matching the selection, nearest to the point first
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, double latitude,
+                        double longitude, int count, String selection, String[] selectionArgs) {
+        if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("Not a point: " + latitude + ", " + longitude);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Can't find " + count + " locations");
+        }
+        // The client's arguments come first, so its selection has to come first in the
+        // statement too, for its parameters to be numbered from 1 as it expects
+        List<String> clientArgs = selectionArgs != null
+                ? Arrays.asList(selectionArgs) : Collections.<String>emptyList();
+        String clientSelection = selection != null ? "(" + selection + ") AND " : "";
+
+        // With no more locations than were asked for, they're all the nearest, and no box
+        // would ever hold enough of them
+        long available = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM (SELECT 1 FROM " +
+                LocationEntry.TABLE_NAME + (selection != null ? " WHERE " + selection : "") +
+                " LIMIT " + count + ")", selectionArgs);
+        String box = null;
+        List<String> boxArgs = null;
+        // The box stops growing once it goes all the way around the globe
+        for (double radius = INITIAL_RADIUS_DEGREES;
+             available >= count && !coversGlobe(latitude, radius); radius *= 2) {
+            List<String> args = new ArrayList<String>(clientArgs);
+            String boxSelection = clientSelection +
+                    buildBoxSelection(latitude, longitude, radius, args);
+            int boxArgCount = args.size();
+            // Once this many are within the radius, none of the nearest can be outside of the
+            // box around it
+            String withinRadius = buildDistanceExpression(latitude, longitude, args) + " <= " +
+                    bind(args, radius * radius);
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                    LocationEntry.TABLE_NAME + " WHERE " + boxSelection + " AND " + withinRadius,
+                    args.toArray(new String[args.size()])) >= count) {
+                box = boxSelection;
+                boxArgs = new ArrayList<String>(args.subList(0, boxArgCount));
+                break;
+            }
+        }
+        if (box == null) {
+            box = selection;
+            boxArgs = new ArrayList<String>(clientArgs);
+        }
+        String distance = buildDistanceExpression(latitude, longitude, boxArgs);
+        return db.query(LocationEntry.TABLE_NAME,
+                projection,
+                box,
+                boxArgs.toArray(new String[boxArgs.size()]),
+                null,
+                null,
+                distance + " ASC",
+                Integer.toString(count));
+    }
+}
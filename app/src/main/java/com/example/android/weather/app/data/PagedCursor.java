@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cursor over a location's weather or history, in date order, that only holds a few pages
+ * of it at a time.  Pages are read as the cursor moves onto them, and the one used longest
+ * ago is closed to make room, so the memory it takes is the same however many days there are.
+ *
+ * A page right after one that is already held is read from the last date of that one, which
+ * SQLite finds straight from the index.  Any other page is read by its offset.
+ *
+ * The main thread never waits for a page.  A page it moves onto is read in the background, and
+ * until it arrives the row reads as nulls and {@link #isRowLoading()} is true.  The page next
+ * to the one it is on, in the direction it seems to be heading, is read ahead in the same way,
+ * so a list scrolling through the days rarely sees that.
+ */
+public class PagedCursor extends AbstractCursor {
+
+    public static final int DEFAULT_PAGE_SIZE = 30;
+    public static final int DEFAULT_MAX_PAGES = 3;
+
+    /**
+     * Hears about the pages that the main thread had read in the background.
+     */
+    public interface OnPageLoadedListener {
+        /**
+         * Called on the main thread once the rows of a page can be read.
+         */
+        void onPageLoaded(int firstPosition, int count);
+    }
+
+    // Pages are read one at a time, and the thread goes away when there are none to read
+    private static final ThreadPoolExecutor sPageExecutor = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    static {
+        sPageExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final int mPageSize;
+    private final int mMaxPages;
+    private final int mDateIndex;
+    private final int mCount;
+    private final String[] mColumnNames;
+
+    // The pages held, by page number, the one used longest ago first
+    private final LinkedHashMap<Integer, Cursor> mPages;
+    // The page the cursor is on, or null while it is being read
+    private Cursor mPage;
+    // The pages being read in the background for the main thread, the only one that uses this
+    private final Set<Integer> mLoadingPages = new HashSet<Integer>();
+    private OnPageLoadedListener mListener;
+    private int mFoundPosition = -1;
+
+    /**
+     * Counts the rows and reads the first page, so this shouldn't be made on the main thread.
+     *
+     * @param uri a weather/[location] or history/[location] URI, without a page
+     * @param projection the columns, which have to include the date
+     * @param maxPages how many pages to hold at once, at least 2
+     */
+    public PagedCursor(ContentResolver resolver, Uri uri, String[] projection, int pageSize,
+                       int maxPages) {
+        if (pageSize < 1 || maxPages < 2) {
+            throw new IllegalArgumentException("Pages of " + pageSize + ", " + maxPages +
+                    " at a time");
+        }
+        int dateIndex = -1;
+        for (int i = 0; i < projection.length; i++) {
+            if (WeatherContract.WeatherEntry.COLUMN_DATE.equals(projection[i])) {
+                dateIndex = i;
+            }
+        }
+        if (dateIndex == -1) {
+            throw new IllegalArgumentException("Pages are found by date, which isn't in " +
+                    "the projection");
+        }
+        mResolver = resolver;
+        mUri = uri;
+        mProjection = projection;
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+        mDateIndex = dateIndex;
+        mPages = new LinkedHashMap<Integer, Cursor>(maxPages + 1, 1f, true);
+
+        mCount = countRows(uri);
+        mColumnNames = mCount > 0 ? getPage(0).getColumnNames() : projection;
+
+        // Loaders reload when the rows change, since the pages still to come would be wrong
+        setNotificationUri(resolver, uri);
+    }
+
+    private int countRows(Uri uri) {
+        Cursor countCursor = mResolver.query(uri, new String[]{"COUNT(*)"}, null, null, null);
+        int count = 0;
+        if (countCursor != null) {
+            if (countCursor.moveToFirst()) {
+                count = countCursor.getInt(0);
+            }
+            countCursor.close();
+        }
+        return count;
+    }
+
+    public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return true if the cursor is on a row whose page is still being read, which reads as
+     * nulls until then
+     */
+    public boolean isRowLoading() {
+        return mPage == null && mPos >= 0 && mPos < mCount;
+    }
+
+    /**
+     * Finds the day with a date from the index, rather than by reading every day before it,
+     * and reads the page it is on.  Like the constructor, this shouldn't be called on the main
+     * thread.
+     *
+     * @return the position of the day, which {@link #getFoundPosition()} returns from then on,
+     * or -1 if there is no such day
+     */
+    public int findDate(long date) {
+        mFoundPosition = -1;
+        Uri fromDateUri = WeatherContract.buildPageAfterDateUri(mUri, 1, date - 1);
+        Cursor first = mResolver.query(fromDateUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (first == null) {
+            return -1;
+        }
+        try {
+            if (!first.moveToFirst() || first.getLong(0) != date) {
+                return -1;
+            }
+        } finally {
+            first.close();
+        }
+        // The days before it are the ones that aren't from it on
+        int position = mCount - countRows(fromDateUri);
+        if (position < 0 || position >= mCount) {
+            return -1;
+        }
+        getPage(position / mPageSize);
+        mFoundPosition = position;
+        return position;
+    }
+
+    /**
+     * @return the position that {@link #findDate} last found, or -1
+     */
+    public int getFoundPosition() {
+        return mFoundPosition;
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private Cursor getPage(int page) {
+        Cursor cursor = mPages.get(page);
+        if (cursor != null) {
+            return cursor;
+        }
+        cursor = queryPage(buildPageUri(page));
+        if (cursor == null) {
+            throw new IllegalStateException("No cursor for page " + page + " of " + mUri);
+        }
+        putPage(page, cursor);
+        return cursor;
+    }
+
+    private Uri buildPageUri(int page) {
+        Cursor previous = mPages.get(page - 1);
+        if (previous != null) {
+            // without losing the row the cursor is on, if it's on that page
+            int position = previous.getPosition();
+            if (previous.moveToLast()) {
+                long lastDate = previous.getLong(mDateIndex);
+                previous.moveToPosition(position);
+                return WeatherContract.buildPageAfterDateUri(mUri, mPageSize, lastDate);
+            }
+        }
+        return WeatherContract.buildPageUri(mUri, mPageSize, page * mPageSize);
+    }
+
+    private Cursor queryPage(Uri pageUri) {
+        return mResolver.query(pageUri, mProjection, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private void putPage(int page, Cursor cursor) {
+        if (mPages.size() >= mMaxPages) {
+            Iterator<Map.Entry<Integer, Cursor>> eldest = mPages.entrySet().iterator();
+            Cursor evicted = eldest.next().getValue();
+            if (evicted == mPage) {
+                mPage = null;
+            }
+            evicted.close();
+            eldest.remove();
+        }
+        mPages.put(page, cursor);
+    }
+
+    /**
+     * Reads a page in the background, for the main thread, unless it's already being read.
+     */
+    private void loadPage(final int page) {
+        if (!mLoadingPages.add(page)) {
+            return;
+        }
+        final Uri pageUri = buildPageUri(page);
+        sPageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Cursor cursor = queryPage(pageUri);
+                if (cursor != null) {
+                    // Fill its window here rather than on the main thread
+                    cursor.getCount();
+                }
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(page, cursor);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(int page, Cursor cursor) {
+        mLoadingPages.remove(page);
+        if (cursor == null) {
+            return;
+        }
+        if (isClosed() || mPages.containsKey(page)) {
+            cursor.close();
+            return;
+        }
+        putPage(page, cursor);
+        int firstPosition = page * mPageSize;
+        if (mPage == null && mPos / mPageSize == page) {
+            mPage = cursor;
+            mPage.moveToPosition(mPos - firstPosition);
+        }
+        if (mListener != null) {
+            mListener.onPageLoaded(firstPosition, Math.min(mPageSize, mCount - firstPosition));
+        }
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int page = newPosition / mPageSize;
+        int pagePosition = newPosition - page * mPageSize;
+        if (!isMainThread()) {
+            mPage = getPage(page);
+            // The page can come up short if the rows changed since the count
+            return mPage.moveToPosition(pagePosition);
+        }
+
+        mPage = mPages.get(page);
+        if (mPage == null) {
+            loadPage(page);
+            return true;
+        }
+        // Read ahead towards the end of the page the cursor is nearer to
+        int nextPage = pagePosition < mPageSize / 2 ? page - 1 : page + 1;
+        if (nextPage >= 0 && nextPage * mPageSize < mCount && !mPages.containsKey(nextPage)) {
+            loadPage(nextPage);
+        }
+        return mPage.moveToPosition(pagePosition);
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mPage != null ? mPage.getString(column) : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mPage != null ? mPage.getShort(column) : 0;
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mPage != null ? mPage.getInt(column) : 0;
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mPage != null ? mPage.getLong(column) : 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mPage != null ? mPage.getFloat(column) : 0;
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mPage != null ? mPage.getDouble(column) : 0;
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mPage != null ? mPage.getBlob(column) : null;
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public int getType(int column) {
+        return mPage != null ? mPage.getType(column) : FIELD_TYPE_NULL;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mPage == null || mPage.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor page : mPages.values()) {
+            page.close();
+        }
+        mPages.clear();
+        mPage = null;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * Loads a {@link PagedCursor} in the way a CursorLoader loads a whole cursor, and loads it
+ * again when the rows change.
+ */
+public class PagedCursorLoader extends AsyncTaskLoader<Cursor> {
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final int mPageSize;
+    private final int mMaxPages;
+    private long mFindDate = -1;
+
+    private Cursor mCursor;
+
+    public PagedCursorLoader(Context context, Uri uri, String[] projection) {
+        this(context, uri, projection, PagedCursor.DEFAULT_PAGE_SIZE,
+                PagedCursor.DEFAULT_MAX_PAGES);
+    }
+
+    public PagedCursorLoader(Context context, Uri uri, String[] projection, int pageSize,
+                             int maxPages) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+    }
+
+    /**
+     * Has every load also find the day with this date, so the list can go straight to it.
+     *
+     * @see PagedCursor#findDate(long)
+     */
+    public void setFindDate(long date) {
+        mFindDate = date;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        PagedCursor cursor = new PagedCursor(getContext().getContentResolver(), mUri,
+                mProjection, mPageSize, mMaxPages);
+        if (mFindDate != -1) {
+            cursor.findDate(mFindDate);
+        }
+        cursor.registerContentObserver(mObserver);
+        return cursor;
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (isReset()) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
+            oldCursor.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mCursor != null && !mCursor.isClosed()) {
+            mCursor.close();
+        }
+        mCursor = null;
+    }
+}
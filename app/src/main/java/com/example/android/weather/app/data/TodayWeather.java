@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Reads today's weather for the things that show nothing else: the widgets, Muzei, the watch
+ * face and the notification.  The values come in a Bundle, under the names of
+ * {@link WeatherEntry#TODAY_COLUMNS}.
+ */
+public final class TodayWeather {
+
+    private TodayWeather() {
+    }
+
+    /**
+     * @return the weather for the first day from today on, or null if there is none
+     */
+    public static Bundle query(ContentResolver resolver, String locationSetting) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return call(resolver, locationSetting);
+        }
+        // call() needs Honeycomb, so read the same row with a query
+        Uri uri = WeatherContract.buildPageUri(WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis()), 1, 0);
+        Cursor cursor = resolver.query(uri, WeatherEntry.TODAY_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bundle call(ContentResolver resolver, String locationSetting) {
+        return resolver.call(WeatherEntry.CONTENT_URI, WeatherEntry.METHOD_GET_TODAY,
+                locationSetting, null);
+    }
+
+    /**
+     * @return the values of the cursor's current row, which has the columns of TODAY_COLUMNS
+     * in that order
+     */
+    static Bundle fromCursor(Cursor cursor) {
+        Bundle today = new Bundle();
+        today.putLong(WeatherEntry.COLUMN_DATE, cursor.getLong(0));
+        today.putInt(WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(1));
+        today.putString(WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(2));
+        today.putDouble(WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(3));
+        today.putDouble(WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(4));
+        return today;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Rows of weather held a column at a time in primitive arrays, for writing a lot of them at
+ * once without a ContentValues per row.
+ *
+ * On Honeycomb and up the arrays are handed to the provider's call() method as they are, and
+ * written with a statement that is compiled once.  Older devices fall back to bulkInsert().  A
+ * batch of operations carries them as a single insert instead, see {@link #newInsert}.
+ */
+public class WeatherBatch {
+
+    // Keeps each call() well under the binder's 1MB transaction limit
+    static final int MAX_ROWS_PER_CALL = 2000;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // The columns of WeatherEntry a row has, not counting the _id
+    private static final int COLUMN_COUNT = 10;
+
+    // The key an insert carries the batch under, as the Bundle of toBundle() marshalled into a
+    // byte array, since that's the only kind of array ContentValues can hold
+    private static final String VALUE_BATCH = "batch";
+
+    private int mSize;
+    private long[] mLocationIds;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private String[] mShortDescs;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public WeatherBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public WeatherBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mLocationIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds a day of weather.  The date is normalized when the row is written.
+     */
+    public void add(long locationId, long date, int weatherId, String shortDesc,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        ensureCapacity(mSize + 1);
+        mLocationIds[mSize] = locationId;
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mShortDescs[mSize] = shortDesc;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    /**
+     * Adds a day of weather given with the columns of {@link WeatherEntry}, as bulkInsert() is.
+     * Every column has to be there, and nothing else, though the description can be null.
+     *
+     * @return false if the values don't make a row of a batch, in which case nothing was added
+     */
+    boolean add(ContentValues values) {
+        if (values.size() != COLUMN_COUNT || !values.containsKey(WeatherEntry.COLUMN_SHORT_DESC)) {
+            return false;
+        }
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        Double minTemp = values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        Double maxTemp = values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidity = values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        Double pressure = values.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+        Double windSpeed = values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        Double degrees = values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+        if (locationId == null || date == null || weatherId == null || minTemp == null
+                || maxTemp == null || humidity == null || pressure == null || windSpeed == null
+                || degrees == null) {
+            return false;
+        }
+        add(locationId, date, weatherId, values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+        return true;
+    }
+
+    /**
+     * Adds every row of another batch to this one.
+     */
+    public void addAll(WeatherBatch other) {
+        ensureCapacity(mSize + other.mSize);
+        System.arraycopy(other.mLocationIds, 0, mLocationIds, mSize, other.mSize);
+        System.arraycopy(other.mDates, 0, mDates, mSize, other.mSize);
+        System.arraycopy(other.mWeatherIds, 0, mWeatherIds, mSize, other.mSize);
+        System.arraycopy(other.mShortDescs, 0, mShortDescs, mSize, other.mSize);
+        System.arraycopy(other.mMinTemps, 0, mMinTemps, mSize, other.mSize);
+        System.arraycopy(other.mMaxTemps, 0, mMaxTemps, mSize, other.mSize);
+        System.arraycopy(other.mHumidities, 0, mHumidities, mSize, other.mSize);
+        System.arraycopy(other.mPressures, 0, mPressures, mSize, other.mSize);
+        System.arraycopy(other.mWindSpeeds, 0, mWindSpeeds, mSize, other.mSize);
+        System.arraycopy(other.mDegrees, 0, mDegrees, mSize, other.mSize);
+        mSize += other.mSize;
+    }
+
+    /**
+     * Sets the location of every row, for weather that was parsed before its location was
+     * stored.
+     */
+    public void setLocationId(long locationId) {
+        Arrays.fill(mLocationIds, 0, mSize, locationId);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mLocationIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mLocationIds.length * 2);
+        mLocationIds = Arrays.copyOf(mLocationIds, newCapacity);
+        mDates = Arrays.copyOf(mDates, newCapacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, newCapacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, newCapacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, newCapacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, newCapacity);
+        mHumidities = Arrays.copyOf(mHumidities, newCapacity);
+        mPressures = Arrays.copyOf(mPressures, newCapacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, newCapacity);
+        mDegrees = Arrays.copyOf(mDegrees, newCapacity);
+    }
+
+    long getLocationId(int row) {
+        return mLocationIds[row];
+    }
+
+    long getDate(int row) {
+        return mDates[row];
+    }
+
+    int getWeatherId(int row) {
+        return mWeatherIds[row];
+    }
+
+    String getShortDesc(int row) {
+        return mShortDescs[row];
+    }
+
+    double getMinTemp(int row) {
+        return mMinTemps[row];
+    }
+
+    double getMaxTemp(int row) {
+        return mMaxTemps[row];
+    }
+
+    double getHumidity(int row) {
+        return mHumidities[row];
+    }
+
+    double getPressure(int row) {
+        return mPressures[row];
+    }
+
+    double getWindSpeed(int row) {
+        return mWindSpeeds[row];
+    }
+
+    double getDegrees(int row) {
+        return mDegrees[row];
+    }
+
+    /**
+     * Writes the rows through the weather provider.
+     *
+     * @param upsert true to leave days that haven't changed alone, as with
+     *               {@link WeatherEntry#buildWeatherUpsertUri()}
+     * @return the number of rows inserted or updated
+     */
+    public int insert(ContentResolver resolver, boolean upsert) {
+        if (mSize == 0) {
+            return 0;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return callInsert(resolver, upsert);
+        }
+        return resolver.bulkInsert(
+                upsert ? WeatherEntry.buildWeatherUpsertUri() : WeatherEntry.CONTENT_URI,
+                toContentValues());
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int callInsert(ContentResolver resolver, boolean upsert) {
+        int count = 0;
+        for (int start = 0; start < mSize; start += MAX_ROWS_PER_CALL) {
+            Bundle result = resolver.call(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.METHOD_BULK_INSERT,
+                    upsert ? WeatherEntry.PARAM_UPSERT : null,
+                    toBundle(start, Math.min(mSize, start + MAX_ROWS_PER_CALL)));
+            if (result != null) {
+                count += result.getInt(WeatherEntry.EXTRA_COUNT);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return an insert of every row, for a batch of operations to carry, so that they are
+     * written together in its transaction.  Its result is a
+     * {@link WeatherEntry#buildWeatherCountUri} with the number of rows written.
+     *
+     * A value for {@link WeatherEntry#COLUMN_LOC_KEY}, given to the builder directly or as a
+     * back reference to a location insert, sets the location of every row.
+     */
+    public ContentProviderOperation.Builder newInsert(boolean upsert) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(toBundle(0, mSize));
+            return ContentProviderOperation.newInsert(
+                    upsert ? WeatherEntry.buildWeatherUpsertUri() : WeatherEntry.CONTENT_URI)
+                    .withValue(VALUE_BATCH, parcel.marshall());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * @return true if the values of an insert are a batch from {@link #newInsert}
+     */
+    static boolean isBatchInsert(ContentValues values) {
+        return values.containsKey(VALUE_BATCH);
+    }
+
+    /**
+     * @return the batch carried by the values of an insert from {@link #newInsert}, or null if
+     * they don't hold one
+     */
+    static WeatherBatch fromInsertValues(ContentValues values) {
+        byte[] marshalled = values.getAsByteArray(VALUE_BATCH);
+        if (marshalled == null) {
+            return null;
+        }
+        Parcel parcel = Parcel.obtain();
+        WeatherBatch batch;
+        try {
+            parcel.unmarshall(marshalled, 0, marshalled.length);
+            parcel.setDataPosition(0);
+            batch = fromBundle(parcel.readBundle(WeatherBatch.class.getClassLoader()));
+        } finally {
+            parcel.recycle();
+        }
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        if (batch != null && locationId != null) {
+            batch.setLocationId(locationId);
+        }
+        return batch;
+    }
+
+    /**
+     * Packs rows [start, end) into a Bundle of arrays keyed by column name.
+     */
+    Bundle toBundle(int start, int end) {
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(WeatherEntry.COLUMN_LOC_KEY, Arrays.copyOfRange(mLocationIds, start, end));
+        bundle.putLongArray(WeatherEntry.COLUMN_DATE, Arrays.copyOfRange(mDates, start, end));
+        bundle.putIntArray(WeatherEntry.COLUMN_WEATHER_ID, Arrays.copyOfRange(mWeatherIds, start, end));
+        bundle.putStringArray(WeatherEntry.COLUMN_SHORT_DESC, Arrays.copyOfRange(mShortDescs, start, end));
+        bundle.putDoubleArray(WeatherEntry.COLUMN_MIN_TEMP, Arrays.copyOfRange(mMinTemps, start, end));
+        bundle.putDoubleArray(WeatherEntry.COLUMN_MAX_TEMP, Arrays.copyOfRange(mMaxTemps, start, end));
+        bundle.putDoubleArray(WeatherEntry.COLUMN_HUMIDITY, Arrays.copyOfRange(mHumidities, start, end));
+        bundle.putDoubleArray(WeatherEntry.COLUMN_PRESSURE, Arrays.copyOfRange(mPressures, start, end));
+        bundle.putDoubleArray(WeatherEntry.COLUMN_WIND_SPEED, Arrays.copyOfRange(mWindSpeeds, start, end));
+        bundle.putDoubleArray(WeatherEntry.COLUMN_DEGREES, Arrays.copyOfRange(mDegrees, start, end));
+        return bundle;
+    }
+
+    /**
+     * @return the batch packed by {@link #toBundle}, or null if the bundle is missing a column
+     * or its columns aren't all the same length
+     */
+    static WeatherBatch fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            return null;
+        }
+        WeatherBatch batch = new WeatherBatch(0);
+        batch.mLocationIds = bundle.getLongArray(WeatherEntry.COLUMN_LOC_KEY);
+        batch.mDates = bundle.getLongArray(WeatherEntry.COLUMN_DATE);
+        batch.mWeatherIds = bundle.getIntArray(WeatherEntry.COLUMN_WEATHER_ID);
+        batch.mShortDescs = bundle.getStringArray(WeatherEntry.COLUMN_SHORT_DESC);
+        batch.mMinTemps = bundle.getDoubleArray(WeatherEntry.COLUMN_MIN_TEMP);
+        batch.mMaxTemps = bundle.getDoubleArray(WeatherEntry.COLUMN_MAX_TEMP);
+        batch.mHumidities = bundle.getDoubleArray(WeatherEntry.COLUMN_HUMIDITY);
+        batch.mPressures = bundle.getDoubleArray(WeatherEntry.COLUMN_PRESSURE);
+        batch.mWindSpeeds = bundle.getDoubleArray(WeatherEntry.COLUMN_WIND_SPEED);
+        batch.mDegrees = bundle.getDoubleArray(WeatherEntry.COLUMN_DEGREES);
+        if (batch.mLocationIds == null || batch.mDates == null || batch.mWeatherIds == null
+                || batch.mShortDescs == null || batch.mMinTemps == null
+                || batch.mMaxTemps == null || batch.mHumidities == null
+                || batch.mPressures == null || batch.mWindSpeeds == null
+                || batch.mDegrees == null) {
+            return null;
+        }
+        int size = batch.mLocationIds.length;
+        if (batch.mDates.length != size || batch.mWeatherIds.length != size
+                || batch.mShortDescs.length != size || batch.mMinTemps.length != size
+                || batch.mMaxTemps.length != size || batch.mHumidities.length != size
+                || batch.mPressures.length != size || batch.mWindSpeeds.length != size
+                || batch.mDegrees.length != size) {
+            return null;
+        }
+        batch.mSize = size;
+        return batch;
+    }
+
+    /**
+     * @return a ContentValues for each row, for bulkInsert()
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] values = new ContentValues[mSize];
+        for (int row = 0; row < mSize; row++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, mLocationIds[row]);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, mDates[row]);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[row]);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, mShortDescs[row]);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[row]);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[row]);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[row]);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, mPressures[row]);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[row]);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, mDegrees[row]);
+            values[row] = weatherValues;
+        }
+        return values;
+    }
+}
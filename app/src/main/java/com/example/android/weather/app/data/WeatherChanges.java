@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Collects which locations, and which of their days, a write to the weather table changed,
+ * so that the provider only tells the observers of those about it, and only drops those
+ * locations from the forecast cache.
+ *
+ * A location can be marked as changed as a whole when its days aren't known, and everything
+ * can be marked as changed when the locations aren't known either.
+ */
+class WeatherChanges {
+
+    // The changed days of each location, or null for a location that changed as a whole
+    private final Map<Long, Set<Long>> mDates = new HashMap<Long, Set<Long>>();
+    private boolean mAllLocations;
+
+    /**
+     * Reads the locations and days that rows matching a selection of the weather table, on
+     * its stored columns, are for, before they are updated or deleted.
+     */
+    static WeatherChanges query(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        WeatherChanges changes = new WeatherChanges();
+        Cursor cursor = db.query(true,
+                WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(cursor.getLong(0), WeatherCodec.getDate(cursor.getInt(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    void add(long locationId, long date) {
+        if (mAllLocations) {
+            return;
+        }
+        if (!mDates.containsKey(locationId)) {
+            mDates.put(locationId, new TreeSet<Long>());
+        }
+        Set<Long> dates = mDates.get(locationId);
+        if (dates != null) {
+            dates.add(date);
+        }
+    }
+
+    void addLocation(long locationId) {
+        if (!mAllLocations) {
+            mDates.put(locationId, null);
+        }
+    }
+
+    void addAllLocations() {
+        mAllLocations = true;
+        mDates.clear();
+    }
+
+    /**
+     * Adds the rows about to be written, whose dates have already been normalized.
+     */
+    void add(ContentValues[] weatherValues) {
+        for (ContentValues values : weatherValues) {
+            Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (locationId == null) {
+                addAllLocations();
+            } else if (date == null) {
+                addLocation(locationId);
+            } else {
+                add(locationId, date);
+            }
+        }
+    }
+
+    void addAll(WeatherChanges changes) {
+        if (changes.mAllLocations) {
+            addAllLocations();
+            return;
+        }
+        for (Map.Entry<Long, Set<Long>> entry : changes.mDates.entrySet()) {
+            if (entry.getValue() == null) {
+                addLocation(entry.getKey());
+            } else {
+                for (long date : entry.getValue()) {
+                    add(entry.getKey(), date);
+                }
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return !mAllLocations && mDates.isEmpty();
+    }
+
+    boolean isAllLocations() {
+        return mAllLocations;
+    }
+
+    Set<Long> getLocationIds() {
+        return mDates.keySet();
+    }
+
+    /**
+     * @return the location's changed days in order, or null if it changed as a whole
+     */
+    Set<Long> getDates(long locationId) {
+        return mDates.get(locationId);
+    }
+}
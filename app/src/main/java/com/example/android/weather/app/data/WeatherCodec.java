@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.text.TextUtils;
+import android.text.format.Time;
+
+import com.example.android.weather.app.data.WeatherContract.LocationEntry;
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns weather rows into the compact form they're stored in, and builds the SQL that turns
+ * them back.  SQLite keeps small integers in 1 to 3 bytes where a REAL always takes 8, so:
+ *
+ * <ul>
+ * <li>the date is the local Julian day rather than the milliseconds of its midnight,</li>
+ * <li>the temperatures and the other measurements are hundredths, as integers, and</li>
+ * <li>the description is only stored when it isn't the one that goes with the weather id,
+ * which it nearly always is.</li>
+ * </ul>
+ *
+ * Everything outside of the provider still sees the columns of {@link WeatherEntry}, since
+ * the provider reads the rows through the decoding expressions built here.
+ */
+class WeatherCodec {
+
+    // Measurements are kept to this many parts of a unit, which is finer than any we're sent
+    static final int SCALE = 100;
+
+    // Past the end of 9999, which is as far as SQLite's dates go
+    private static final long MAX_DATE = 253402300800000L;
+
+    // The columns that are stored as hundredths
+    static final Set<String> MEASUREMENT_COLUMNS = new HashSet<String>(Arrays.asList(
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES));
+
+    // The weather columns in the order of the table, as a query with no projection reads them
+    private static final String[] DECODED_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The description OpenWeatherMap gives each range of weather ids, both ends inclusive
+    private static final int[] DESCRIPTION_FIRST_IDS =
+            {200, 300, 500, 600, 701, 711, 721, 731, 741, 751, 761, 762, 771, 781, 800, 801, 900,
+                    951};
+    private static final int[] DESCRIPTION_LAST_IDS =
+            {299, 399, 599, 699, 701, 711, 721, 731, 741, 751, 761, 762, 771, 781, 800, 804, 906,
+                    962};
+    private static final String[] DESCRIPTIONS =
+            {"Thunderstorm", "Drizzle", "Rain", "Snow", "Mist", "Smoke", "Haze", "Dust", "Fog",
+                    "Sand", "Dust", "Ash", "Squall", "Tornado", "Clear", "Clouds", "Extreme",
+                    "Additional"};
+
+    // The weather table as everything outside of the provider sees it
+    static final String DECODED_TABLE = "(SELECT " +
+            TextUtils.join(", ", decodeProjection(DECODED_COLUMNS, null)) +
+            " FROM " + WeatherEntry.TABLE_NAME + ") AS " + WeatherEntry.TABLE_NAME;
+
+    // A condition that the stored columns can answer by themselves: one on the location, which
+    // is stored as it is, or on the date, which is compared as a Julian day
+    private static final Pattern STORED_CONDITION = Pattern.compile("\\s*(?:" +
+            WeatherEntry.TABLE_NAME + "\\.)?(" + WeatherEntry.COLUMN_LOC_KEY + "|" +
+            WeatherEntry.COLUMN_DATE + ")\\s*(<=|<|>=|>|=)\\s*\\?\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern AND = Pattern.compile("\\bAND\\b", Pattern.CASE_INSENSITIVE);
+
+    private WeatherCodec() {
+    }
+
+    /**
+     * @return the local Julian day that a date falls on
+     */
+    static int getJulianDay(long date) {
+        return getJulianDay(date, new Time());
+    }
+
+    private static int getJulianDay(long date, Time time) {
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    /**
+     * @return the first Julian day whose midnight is at or after the date, for ranges that
+     * start there
+     */
+    static int getFirstJulianDay(long date) {
+        if (date <= 0) {
+            return 0;
+        }
+        if (date >= MAX_DATE) {
+            return Integer.MAX_VALUE;
+        }
+        int julianDay = getJulianDay(date);
+        return getDate(julianDay) < date ? julianDay + 1 : julianDay;
+    }
+
+    /**
+     * @return the last Julian day whose midnight is at or before the date, for ranges that
+     * end there
+     */
+    static int getLastJulianDay(long date) {
+        if (date < 0) {
+            return -1;
+        }
+        if (date >= MAX_DATE) {
+            return Integer.MAX_VALUE;
+        }
+        return getJulianDay(date);
+    }
+
+    /**
+     * @return the local midnight of a Julian day, which is what {@link
+     * WeatherContract#normalizeDate(long)} makes of any time on that day
+     */
+    static long getDate(int julianDay) {
+        return new Time().setJulianDay(julianDay);
+    }
+
+    static long encodeMeasurement(double value) {
+        return Math.round(value * SCALE);
+    }
+
+    /**
+     * @return the description OpenWeatherMap gives a weather id, or null if we don't know it
+     */
+    static String getDescription(int weatherId) {
+        for (int i = 0; i < DESCRIPTIONS.length; i++) {
+            if (weatherId >= DESCRIPTION_FIRST_IDS[i] && weatherId <= DESCRIPTION_LAST_IDS[i]) {
+                return DESCRIPTIONS[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the description to store, which is null if it's the one that goes with the id
+     */
+    static String encodeDescription(int weatherId, String description) {
+        return description != null && description.equals(getDescription(weatherId))
+                ? null : description;
+    }
+
+    /**
+     * @return a copy of weather values in the form they're stored in.  Dates should already be
+     * normalized, and columns that aren't encoded are copied as they are.
+     */
+    static ContentValues encode(ContentValues values) {
+        return encode(values, new Time());
+    }
+
+    /**
+     * Same as {@link #encode(ContentValues)}, working out the dates with the given Time.
+     */
+    static ContentValues encode(ContentValues values, Time time) {
+        ContentValues encoded = new ContentValues(values);
+        for (String column : values.keySet()) {
+            if (values.get(column) == null) {
+                continue;
+            }
+            if (WeatherEntry.COLUMN_DATE.equals(column)) {
+                encoded.put(column, getJulianDay(values.getAsLong(column), time));
+            } else if (MEASUREMENT_COLUMNS.contains(column)) {
+                encoded.put(column, encodeMeasurement(values.getAsDouble(column)));
+            }
+        }
+        Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        if (weatherId != null && values.containsKey(WeatherEntry.COLUMN_SHORT_DESC)) {
+            encoded.put(WeatherEntry.COLUMN_SHORT_DESC, encodeDescription(weatherId,
+                    values.getAsString(WeatherEntry.COLUMN_SHORT_DESC)));
+        }
+        return encoded;
+    }
+
+    /**
+     * @return the SQL that turns a stored Julian day back into the milliseconds of its local
+     * midnight.  SQLite reads a number as a Julian day that starts at noon, so half a day back
+     * is the midnight, which 'utc' then takes from local time.
+     *
+     * The decoded columns are CAST so that they have the affinity the stored columns used to,
+     * which turns the string arguments of a selection into numbers before comparing them.
+     */
+    static String decodeDate(String julianDay) {
+        return "CAST(strftime('%s', " + julianDay + " - 0.5, 'utc') * 1000 AS INTEGER)";
+    }
+
+    static String decodeMeasurement(String measurement) {
+        return "CAST(" + measurement + " / " + SCALE + ".0 AS REAL)";
+    }
+
+    /**
+     * @return the SQL for the description of a row, which is the weather id's own unless the
+     * row has one that's different
+     */
+    static String decodeDescription(String description, String weatherId) {
+        StringBuilder sql = new StringBuilder("COALESCE(").append(description).append(", CASE");
+        for (int i = 0; i < DESCRIPTIONS.length; i++) {
+            sql.append(" WHEN ").append(weatherId).append(" BETWEEN ")
+                    .append(DESCRIPTION_FIRST_IDS[i]).append(" AND ")
+                    .append(DESCRIPTION_LAST_IDS[i]).append(" THEN '")
+                    .append(DESCRIPTIONS[i]).append('\'');
+        }
+        return sql.append(" END)").toString();
+    }
+
+    /**
+     * @return the SQL that decodes a weather column, or null if it is stored as it is
+     * @param table what to qualify the stored columns with, or null to leave them as they are
+     */
+    static String decodeColumn(String column, String table) {
+        String prefix = table != null ? table + "." : "";
+        if (WeatherEntry.COLUMN_DATE.equals(column)) {
+            return decodeDate(prefix + column);
+        }
+        if (MEASUREMENT_COLUMNS.contains(column)) {
+            return decodeMeasurement(prefix + column);
+        }
+        if (WeatherEntry.COLUMN_SHORT_DESC.equals(column)) {
+            return decodeDescription(prefix + column, prefix + WeatherEntry.COLUMN_WEATHER_ID);
+        }
+        return null;
+    }
+
+    /**
+     * Rewrites a projection of weather columns so that it reads them decoded, under their own
+     * names.  Anything else, such as the location's columns, is left as it is.
+     *
+     * @param table what to qualify the stored columns with, or null to leave them as they are
+     * @return the decoding projection, or with a null projection, all the weather columns
+     * decoded
+     */
+    static String[] decodeProjection(String[] projection, String table) {
+        if (projection == null) {
+            projection = DECODED_COLUMNS;
+        }
+        final String weatherPrefix = WeatherEntry.TABLE_NAME + ".";
+        String[] decoded = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i];
+            if (column.startsWith(weatherPrefix)) {
+                column = column.substring(weatherPrefix.length());
+            }
+            String expression = decodeColumn(column, table);
+            decoded[i] = expression != null ? expression + " AS " + column : projection[i];
+        }
+        return decoded;
+    }
+
+    /**
+     * @return the projection for the weather table joined with the location table, where a
+     * null projection reads every column of both
+     */
+    static String[] decodeJoinedProjection(String[] projection) {
+        if (projection != null) {
+            return decodeProjection(projection, WeatherEntry.TABLE_NAME);
+        }
+        String[] weatherColumns = decodeProjection(null, WeatherEntry.TABLE_NAME);
+        String[] joined = Arrays.copyOf(weatherColumns, weatherColumns.length + 1);
+        // _id and location_id stay unqualified above, so qualify them here
+        joined[0] = WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID;
+        joined[1] = WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY;
+        joined[weatherColumns.length] = LocationEntry.TABLE_NAME + ".*";
+        return joined;
+    }
+
+    /**
+     * Points a sort order at the stored columns wherever they sort the same as the decoded
+     * ones, which is all of them but the description.  Otherwise SQLite would sort on the
+     * decoding expression rather than reading the rows in the order of an index.
+     */
+    static String buildStoredSortOrder(String sortOrder) {
+        if (sortOrder == null) {
+            return null;
+        }
+        final String weatherPrefix = WeatherEntry.TABLE_NAME + ".";
+        String[] terms = sortOrder.split(",");
+        for (int i = 0; i < terms.length; i++) {
+            String term = terms[i].trim();
+            int end = term.indexOf(' ');
+            String column = end == -1 ? term : term.substring(0, end);
+            if (column.startsWith(weatherPrefix)) {
+                column = column.substring(weatherPrefix.length());
+            }
+            if (WeatherEntry.COLUMN_DATE.equals(column) || MEASUREMENT_COLUMNS.contains(column)) {
+                term = weatherPrefix + column + (end == -1 ? "" : term.substring(end));
+            }
+            terms[i] = term;
+        }
+        return TextUtils.join(", ", terms);
+    }
+
+    /**
+     * Turns a selection a client wrote against the decoded columns into one for the stored
+     * table.  A selection made only of conditions on the location and the date, joined by AND,
+     * such as the sync's delete of the days that have passed or a delete of one location's
+     * weather, becomes one on the stored columns that the location and date index can serve,
+     * and takes the arguments of {@link #buildStoredSelectionArgs}.  Anything else is evaluated
+     * against every row, so the provider's own selections are written against the stored
+     * columns instead.
+     *
+     * @return the selection, which takes the same arguments unless it is on the stored columns
+     */
+    static String buildStoredSelection(String selection, String[] selectionArgs) {
+        if (selection == null || "1".equals(selection)) {
+            return selection;
+        }
+        String[][] conditions = getStoredConditions(selection, selectionArgs);
+        if (conditions != null) {
+            String[] terms = new String[conditions.length];
+            for (int i = 0; i < conditions.length; i++) {
+                terms[i] = conditions[i][0] + " " + conditions[i][1] + " ?";
+            }
+            return TextUtils.join(" AND ", terms);
+        }
+        return WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID + " FROM " + DECODED_TABLE +
+                " WHERE " + selection + ")";
+    }
+
+    /**
+     * @return the arguments of {@link #buildStoredSelection}, which has each date of a selection
+     * on the stored columns as the Julian day of the same comparison
+     */
+    static String[] buildStoredSelectionArgs(String selection, String[] selectionArgs) {
+        String[][] conditions = getStoredConditions(selection, selectionArgs);
+        if (conditions == null) {
+            return selectionArgs;
+        }
+        String[] storedArgs = new String[selectionArgs.length];
+        for (int i = 0; i < conditions.length; i++) {
+            if (WeatherEntry.COLUMN_DATE.equals(conditions[i][0])) {
+                long date = Long.parseLong(selectionArgs[i].trim());
+                storedArgs[i] = Integer.toString(getJulianDayBound(conditions[i][1], date));
+            } else {
+                storedArgs[i] = selectionArgs[i];
+            }
+        }
+        return storedArgs;
+    }
+
+    /**
+     * @return the Julian day that compares to the stored days as the date does to the decoded
+     * ones
+     */
+    private static int getJulianDayBound(String operator, long date) {
+        if ("<".equals(operator) || ">=".equals(operator)) {
+            return getFirstJulianDay(date);
+        } else if ("=".equals(operator) && getFirstJulianDay(date) != getLastJulianDay(date)) {
+            // Not a midnight, which no stored day decodes to
+            return -1;
+        }
+        return getLastJulianDay(date);
+    }
+
+    /**
+     * @return the column and comparison of each condition of a selection made only of
+     * conditions on the location and the date, each with its own argument and a date in
+     * milliseconds, or null if it's any other selection
+     */
+    private static String[][] getStoredConditions(String selection, String[] selectionArgs) {
+        if (selection == null || selectionArgs == null) {
+            return null;
+        }
+        String[] terms = AND.split(selection, -1);
+        if (terms.length != selectionArgs.length) {
+            return null;
+        }
+        String[][] conditions = new String[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            Matcher matcher = STORED_CONDITION.matcher(terms[i]);
+            if (!matcher.matches()) {
+                return null;
+            }
+            String column = WeatherEntry.COLUMN_DATE.equalsIgnoreCase(matcher.group(1))
+                    ? WeatherEntry.COLUMN_DATE : WeatherEntry.COLUMN_LOC_KEY;
+            if (selectionArgs[i] == null) {
+                return null;
+            }
+            if (WeatherEntry.COLUMN_DATE.equals(column)) {
+                try {
+                    Long.parseLong(selectionArgs[i].trim());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            conditions[i] = new String[]{column, matcher.group(2)};
+        }
+        return conditions;
+    }
+}
@@ -43,6 +43,64 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_NEAREST = "nearest";
+
+    // Query parameters that page through a location's weather or history, in date order.  A
+    // query returns at most PARAM_LIMIT rows, skipping the first PARAM_OFFSET of them, and
+    // only days after PARAM_AFTER_DATE, so a page can start where the last one ended without
+    // counting its way there.
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_OFFSET = "offset";
+    public static final String PARAM_AFTER_DATE = "after";
+
+    /**
+     * @return the weather or history URI limited to a page of rows from offset on.
+     */
+    public static Uri buildPageUri(Uri uri, int limit, int offset) {
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                .appendQueryParameter(PARAM_OFFSET, Integer.toString(offset))
+                .build();
+    }
+
+    /**
+     * @return the weather or history URI limited to a page of rows for the days after a date.
+     */
+    public static Uri buildPageAfterDateUri(Uri uri, int limit, long afterDate) {
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDate))
+                .build();
+    }
+
+    /**
+     * @return the LIMIT clause for a URI, or null if it isn't paged.
+     */
+    public static String getLimitFromUri(Uri uri) {
+        String limitString = uri.getQueryParameter(PARAM_LIMIT);
+        if (null == limitString || limitString.length() == 0)
+            return null;
+        String offsetString = uri.getQueryParameter(PARAM_OFFSET);
+        if (null == offsetString || offsetString.length() == 0)
+            return Integer.toString(Integer.parseInt(limitString));
+        // Parsed so that nothing but numbers can end up in the SQL
+        return Integer.parseInt(limitString) + " OFFSET " + Integer.parseInt(offsetString);
+    }
+
+    /**
+     * @return the first date a query may return, which is the start date unless the URI asks
+     * for the days after a later one.
+     */
+    public static long getFirstDateFromUri(Uri uri, long startDate) {
+        String dateString = uri.getQueryParameter(PARAM_AFTER_DATE);
+        if (null != dateString && dateString.length() > 0)
+            return Math.max(startDate, Long.parseLong(dateString) + 1);
+        else
+            return startDate;
+    }
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,9 +139,95 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The ETag and Last-Modified validators from the last forecast download for this
+        // location, sent back to the server so it can answer 304 Not Modified.  Either may be
+        // null if the server didn't provide it.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // Query parameter for the text to search the locations for.  Each of its words matches
+        // the start of a word in the location setting or the city name.
+        public static final String PARAM_QUERY = "q";
+
+        // Query parameters for the point to find the nearest locations to, in degrees
+        public static final String PARAM_LATITUDE = "lat";
+        public static final String PARAM_LONGITUDE = "lon";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * @return the URI of the locations matching what the user has typed so far, at most
+         * limit of them.
+         */
+        public static Uri buildLocationSearchUri(String query, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(PARAM_QUERY, query)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        public static String getSearchQueryFromUri(Uri uri) {
+            String query = uri.getQueryParameter(PARAM_QUERY);
+            return query != null ? query : "";
+        }
+
+        /**
+         * @return the URI of the count locations nearest to a point, nearest first, so that a
+         * device's location can be shown the weather of a city we already have.
+         */
+        public static Uri buildNearestLocationsUri(double latitude, double longitude,
+                                                   int count) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LATITUDE, Double.toString(latitude))
+                    .appendQueryParameter(PARAM_LONGITUDE, Double.toString(longitude))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(count))
+                    .build();
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return getDegreesFromUri(uri, PARAM_LATITUDE, 90);
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return getDegreesFromUri(uri, PARAM_LONGITUDE, 180);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the URI doesn't have the parameter, or it isn't a
+         * number of degrees from -max to max
+         */
+        private static double getDegreesFromUri(Uri uri, String param, double max) {
+            String degreesString = uri.getQueryParameter(param);
+            if (null == degreesString || degreesString.length() == 0)
+                throw new IllegalArgumentException("No " + param + " in " + uri);
+            double degrees;
+            try {
+                degrees = Double.parseDouble(degreesString);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad " + param + " in " + uri, e);
+            }
+            // which is false for NaN as well
+            if (!(degrees >= -max && degrees <= max))
+                throw new IllegalArgumentException("Bad " + param + " in " + uri);
+            return degrees;
+        }
+
+        public static int getCountFromUri(Uri uri) {
+            String countString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null == countString || countString.length() == 0)
+                return 1;
+            int count;
+            try {
+                count = Integer.parseInt(countString);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad " + PARAM_LIMIT + " in " + uri, e);
+            }
+            if (count < 0)
+                throw new IllegalArgumentException("Bad " + PARAM_LIMIT + " in " + uri);
+            return count;
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -97,11 +241,18 @@ public class WeatherContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
 
+        // Changes are notified on weather/[location]/[date] for each day that changed, or on
+        // weather/[location] when many of its days did, and only on weather itself when they
+        // could have been to any location.  So observers of weather/[location] hear about
+        // that location alone, and observers of weather/[location]/[date] about that day.
+
         public static final String TABLE_NAME = "weather";
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
-        // Date, stored as long in milliseconds since the epoch
+        // Date, stored as long in milliseconds since the epoch.  The provider actually keeps it
+        // as a Julian day, and the measurements below as hundredths, but it always reads them
+        // back as they're described here.
         public static final String COLUMN_DATE = "date";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
@@ -126,10 +277,103 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter asking bulkInsert to compare each row with the one already stored for
+        // its location and date, and only write the rows that changed.
+        public static final String PARAM_UPSERT = "upsert";
+
+        // Query parameter of the URI an insert of a WeatherBatch returns, for how many rows it
+        // wrote.
+        public static final String PARAM_COUNT = "count";
+
+        // Query parameter asking delete to move the rows into the history, keeping this many
+        // months of it.
+        public static final String PARAM_ARCHIVE_MONTHS = "archive_months";
+
+        // call() method that writes a WeatherBatch.  Its arg is PARAM_UPSERT to skip unchanged
+        // days, and the number of rows written comes back under EXTRA_COUNT.
+        public static final String METHOD_BULK_INSERT = "bulk_insert_weather";
+        public static final String EXTRA_COUNT = "count";
+
+        // call() method that returns how often the provider answered a forecast query from
+        // memory, under EXTRA_CACHE_HITS, and how often it had to read the database, under
+        // EXTRA_CACHE_MISSES.  Both are longs, counted since the provider started.
+        public static final String METHOD_GET_CACHE_STATS = "get_forecast_cache_stats";
+        public static final String EXTRA_CACHE_HITS = "cache_hits";
+        public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+        // call() method that returns the weather for the first day from today on, for the
+        // location setting given as its arg.  It comes back as a Bundle with each of
+        // TODAY_COLUMNS under its own name, or as null if there is none.  The provider keeps it
+        // in memory, so things that only show today needn't query for it.
+        public static final String METHOD_GET_TODAY = "get_today_weather";
+        public static final String[] TODAY_COLUMNS = {
+                COLUMN_DATE,
+                COLUMN_WEATHER_ID,
+                COLUMN_SHORT_DESC,
+                COLUMN_MAX_TEMP,
+                COLUMN_MIN_TEMP
+        };
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /**
+         * @return the weather URI to bulkInsert into when unchanged days should be skipped.
+         * bulkInsert then returns the number of rows that were inserted or updated.
+         *
+         * An insert of a {@link WeatherBatch} into this URI, which is how a batch of operations
+         * carries weather since ContentProviderOperation has no bulk insert, writes its rows in
+         * the same way.
+         */
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_UPSERT, Boolean.toString(true)).build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
+        /**
+         * @return the URI that an insert of a {@link WeatherBatch} answers with, which has the
+         * number of rows it inserted or updated, since it has no single row to point at.
+         */
+        public static Uri buildWeatherCountUri(int count) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_COUNT, Integer.toString(count)).build();
+        }
+
+        public static int getCountFromUri(Uri uri) {
+            String countString = uri.getQueryParameter(PARAM_COUNT);
+            if (null != countString && countString.length() > 0)
+                return Integer.parseInt(countString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the weather URI to delete from when the deleted rows should be moved into the
+         * history instead.  History older than retainMonths whole months is dropped at the same
+         * time.
+         */
+        public static Uri buildWeatherArchiveUri(int retainMonths) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_ARCHIVE_MONTHS, Integer.toString(retainMonths))
+                    .build();
+        }
+
+        /**
+         * @return the number of months of history to keep, or -1 if the URI doesn't archive.
+         */
+        public static int getArchiveMonthsFromUri(Uri uri) {
+            String monthsString = uri.getQueryParameter(PARAM_ARCHIVE_MONTHS);
+            if (null != monthsString && monthsString.length() > 0)
+                return Integer.parseInt(monthsString);
+            else
+                return -1;
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -165,4 +409,133 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the weather history.  Days that have passed are moved out of the
+        weather table into one table per month, so the forecast stays small and a month that is
+        no longer wanted can be dropped as a whole.  The history tables have the same columns as
+        the weather table, and queries of them return the date as the _ID.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        // Each month's table is named with this prefix and the year and month, e.g. history_201512
+        public static final String TABLE_PREFIX = "history_";
+
+        // Query parameters for the first and last days of a range, both inclusive
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithDateRange(String locationSetting,
+                                                            long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the weather statistics for a location, which the provider works
+        out in SQLite from the forecast and the history together.  Each row covers a day, a week
+        starting on Monday, or a month, and only periods with weather in them have a row.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_WEATHER + "/" + PATH_STATS;
+
+        // The first and last days of the period that have weather, as stored.  The start date is
+        // also the _ID.
+        public static final String COLUMN_START_DATE = "start_date";
+        public static final String COLUMN_END_DATE = "end_date";
+        // How many days of the period have weather
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // The lowest and highest temperatures, and the averages of each day's min and max
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+        public static final String COLUMN_MAX_WIND_SPEED = "max_wind";
+
+        // Query parameters for the first and last days of the range, both inclusive, and the
+        // length of the periods
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        public static final String PARAM_GROUP = "group";
+
+        public static final String GROUP_DAY = "day";
+        public static final String GROUP_WEEK = "week";
+        public static final String GROUP_MONTH = "month";
+
+        public static Uri buildStatsUri(String locationSetting, long fromDate, long toDate,
+                                        String group) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(toDate)))
+                    .appendQueryParameter(PARAM_GROUP, group)
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getFromDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_FROM);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getToDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_TO);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+
+        // Days unless the URI asks otherwise
+        public static String getGroupFromUri(Uri uri) {
+            String group = uri.getQueryParameter(PARAM_GROUP);
+            return group != null ? group : GROUP_DAY;
+        }
+    }
 }
@@ -15,29 +15,181 @@
  */
 package com.example.android.weather.app.data;
 
+import android.annotation.TargetApi;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.example.android.weather.app.data.WeatherContract.LocationEntry;
 import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
 
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Manages a local database for weather data.
+ *
+ * From Honeycomb on the database uses write-ahead logging, so that the loaders and widgets
+ * can keep reading while a sync is writing.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The first version whose schema onUpgrade() knows how to move on from
+    static final int OLDEST_UPGRADABLE_VERSION = 2;
+
+    // Serves the forecast queries, which look up a location's days from a start date on.  It
+    // also carries the columns the forecast list shows, so the list never reads the table.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+
+    // Full-text index of the locations' settings and city names, which the provider searches
+    // as the user types a location.  Its docid is the location's _id, and triggers on the
+    // location table keep it in step.  FTS4 would need Honeycomb, FTS3 is everywhere.
+    static final String LOCATION_SEARCH_TABLE = "location_search";
+
+    // Serves the nearest location queries, which look for the locations in a box of latitudes
+    // and longitudes.  SQLite's R*Tree module would be the usual spatial index, but Android
+    // doesn't build it in.
+    static final String LOCATION_COORD_INDEX = "location_coord";
+
+    // Android turns SQLite's automatic checkpoint down to every 100 pages, which a sync's
+    // commit would often cross and then pay for the checkpoint itself.  Let the log grow to
+    // about 16MB of 4KB pages instead, which only happens if our own checkpoints can't keep up.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+    // We checkpoint in the background once this many rows have been written, or this long
+    // after the last checkpoint if anything has been written since
+    static final int CHECKPOINT_ROWS = 500;
+    static final long CHECKPOINT_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    // Checkpoints run one at a time on a thread of their own, which goes away when idle
+    private final ThreadPoolExecutor mCheckpointExecutor = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private final Object mCheckpointLock = new Object();
+    private int mRowsSinceCheckpoint;
+    private long mLastCheckpointMillis = SystemClock.elapsedRealtime();
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // For tests that need a database of their own
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mCheckpointExecutor.allowCoreThreadTimeOut(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * @return true if this device supports write-ahead logging, which we then always use
+     */
+    static boolean isWalSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configureWal(db);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && isWalSupported()
+                && !db.isReadOnly()) {
+            // There's no onConfigure() before Jelly Bean.  This has to happen outside of a
+            // transaction, which onOpen() is.
+            db.enableWriteAheadLogging();
+            configureWal(db);
+        }
+    }
+
+    /**
+     * With a write-ahead log, syncing only at checkpoints still can't corrupt the database.  A
+     * power cut could lose the last few commits, but they're only a cache of the forecast.
+     */
+    private static void configureWal(SQLiteDatabase db) {
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        // This PRAGMA returns a row, which execSQL() doesn't allow
+        Cursor cursor = db.rawQuery("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES,
+                null);
+        cursor.moveToFirst();
+        cursor.close();
+    }
+
+    /**
+     * Called by the provider once it has committed some writes.  Every so often this copies the
+     * log back into the database, without waiting for readers to finish, so that the log
+     * doesn't keep growing and reads don't have to look through it.  That happens in the
+     * background, so whoever wrote doesn't wait for it either.
+     */
+    void onWritesCommitted(final SQLiteDatabase db, int rowCount) {
+        if (!isWalSupported() || rowCount <= 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mCheckpointLock) {
+            mRowsSinceCheckpoint += rowCount;
+            if (mRowsSinceCheckpoint < CHECKPOINT_ROWS
+                    && now - mLastCheckpointMillis < CHECKPOINT_INTERVAL_MILLIS) {
+                return;
+            }
+            mRowsSinceCheckpoint = 0;
+            mLastCheckpointMillis = now;
+        }
+        mCheckpointExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkpoint(db);
+                } catch (IllegalStateException | SQLException e) {
+                    // Closed in the meantime, or busy.  The next one will catch up.
+                    Log.w(LOG_TAG, "Checkpoint failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a passive checkpoint, which copies whatever it can without blocking anyone.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            if (cursor.moveToFirst()) {
+                // busy, pages in the log, pages checkpointed
+                Log.d(LOG_TAG, "Checkpointed " + cursor.getInt(2) + " of " + cursor.getInt(1)
+                        + " log pages");
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // Any location ids we remember belonged to the old database
+        LocationIdCache.invalidate();
+
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -45,10 +197,56 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        createLocationSearch(sqLiteDatabase);
+        createLocationCoordIndex(sqLiteDatabase);
+        createWeatherTable(sqLiteDatabase);
+        createWeatherLocationDateIndex(sqLiteDatabase);
+    }
+
+    private static void createLocationSearch(SQLiteDatabase sqLiteDatabase) {
+        final String columns = LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME;
+        final String insertNew = "INSERT INTO " + LOCATION_SEARCH_TABLE +
+                " (docid, " + columns + ") VALUES (new." + LocationEntry._ID +
+                ", new." + LocationEntry.COLUMN_LOCATION_SETTING +
+                ", new." + LocationEntry.COLUMN_CITY_NAME + "); ";
+        final String deleteOld = "DELETE FROM " + LOCATION_SEARCH_TABLE +
+                " WHERE docid = old." + LocationEntry._ID + "; ";
+
+        sqLiteDatabase.execSQL("CREATE VIRTUAL TABLE " + LOCATION_SEARCH_TABLE +
+                " USING fts3(" + columns + ");");
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + LOCATION_SEARCH_TABLE + "_insert" +
+                " AFTER INSERT ON " + LocationEntry.TABLE_NAME +
+                " BEGIN " + insertNew + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + LOCATION_SEARCH_TABLE + "_update" +
+                " AFTER UPDATE OF " + LocationEntry._ID + ", " + columns +
+                " ON " + LocationEntry.TABLE_NAME +
+                " BEGIN " + deleteOld + insertNew + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + LOCATION_SEARCH_TABLE + "_delete" +
+                " AFTER DELETE ON " + LocationEntry.TABLE_NAME +
+                " BEGIN " + deleteOld + "END;");
+    }
+
+    private static void createLocationCoordIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX " +
+                LOCATION_COORD_INDEX + " ON " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + ");");
+    }
+
+    /**
+     * The weather is stored in the compact form of {@link WeatherCodec}: the date is a Julian
+     * day, the measurements are hundredths, and the description is null when it's the weather
+     * id's own.
+     */
+    private static void createWeatherTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
@@ -59,16 +257,16 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 // the ID of the location entry associated with this weather data
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT, " +
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
 
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
 
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
 
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
@@ -77,22 +275,137 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 // To assure the application have just one weather entry per day
                 // per location, it's created a UNIQUE constraint with REPLACE strategy
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);");
+    }
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+    private static void createWeatherLocationDateIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX " +
+                WEATHER_LOCATION_DATE_INDEX + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ");");
     }
 
+    /**
+     * Brings the database up to date one version at a time, keeping the locations and weather
+     * it already has, so that the app has something to show before its first sync.
+     *
+     * When you change the schema, add an upgradeToVersionN() step here as well as changing
+     * onCreate().  Anything older than OLDEST_UPGRADABLE_VERSION is from before the schema was
+     * tracked, and is discarded, as is a database that fails to upgrade.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < OLDEST_UPGRADABLE_VERSION) {
+            recreate(sqLiteDatabase);
+            return;
+        }
+        try {
+            for (int version = oldVersion + 1; version <= newVersion; version++) {
+                Log.d(LOG_TAG, "Upgrading database to version " + version);
+                switch (version) {
+                    case 3:
+                        upgradeToVersion3(sqLiteDatabase);
+                        break;
+                    case 4:
+                        upgradeToVersion4(sqLiteDatabase);
+                        break;
+                    case 5:
+                        upgradeToVersion5(sqLiteDatabase);
+                        break;
+                    case 6:
+                        upgradeToVersion6(sqLiteDatabase);
+                        break;
+                    case 7:
+                        upgradeToVersion7(sqLiteDatabase);
+                        break;
+                    default:
+                        throw new IllegalStateException("No upgrade to version " + version);
+                }
+            }
+        } catch (SQLException | IllegalStateException e) {
+            // This database is only a cache for online data, so we can always start over
+            Log.e(LOG_TAG, "Error upgrading from version " + oldVersion + ", starting over", e);
+            recreate(sqLiteDatabase);
+        }
+    }
+
+    // Locations remember the validators of their last forecast
+    private static void upgradeToVersion3(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                " ADD COLUMN " + LocationEntry.COLUMN_ETAG + " TEXT");
+        sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                " ADD COLUMN " + LocationEntry.COLUMN_LAST_MODIFIED + " TEXT");
+    }
+
+    // The forecast queries get their own index
+    private static void upgradeToVersion4(SQLiteDatabase sqLiteDatabase) {
+        createWeatherLocationDateIndex(sqLiteDatabase);
+    }
+
+    // The weather and its history are stored encoded
+    private static void upgradeToVersion5(SQLiteDatabase sqLiteDatabase) {
+        final String oldTable = "weather_v4";
+        // The index goes along with the old table, and is made again once it's gone
+        sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " +
+                oldTable);
+        createWeatherTable(sqLiteDatabase);
+        copyEncoded(sqLiteDatabase, oldTable, WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE " + oldTable);
+        createWeatherLocationDateIndex(sqLiteDatabase);
+
+        for (int month : WeatherHistory.getMonths(sqLiteDatabase)) {
+            // Not a month's name, so getMonths() won't mistake it for one
+            final String oldMonthTable = WeatherContract.HistoryEntry.TABLE_PREFIX + "v4";
+            sqLiteDatabase.execSQL("ALTER TABLE " + WeatherHistory.getTableName(month) +
+                    " RENAME TO " + oldMonthTable);
+            WeatherHistory.createTable(sqLiteDatabase, month);
+            copyEncoded(sqLiteDatabase, oldMonthTable, WeatherHistory.getTableName(month));
+            sqLiteDatabase.execSQL("DROP TABLE " + oldMonthTable);
+        }
+    }
+
+    // The locations can be searched, including the ones we already have
+    private static void upgradeToVersion6(SQLiteDatabase sqLiteDatabase) {
+        createLocationSearch(sqLiteDatabase);
+        sqLiteDatabase.execSQL("INSERT INTO " + LOCATION_SEARCH_TABLE + " (docid, " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME +
+                ") SELECT " + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING +
+                ", " + LocationEntry.COLUMN_CITY_NAME + " FROM " + LocationEntry.TABLE_NAME);
+    }
+
+    // The nearest locations get their own index
+    private static void upgradeToVersion7(SQLiteDatabase sqLiteDatabase) {
+        createLocationCoordIndex(sqLiteDatabase);
+    }
+
+    /**
+     * Copies the rows of a table of weather as it was stored up to version 4 into one that
+     * stores it encoded.
+     */
+    private static void copyEncoded(SQLiteDatabase sqLiteDatabase, String from, String to) {
+        Cursor cursor = sqLiteDatabase.query(from, null, null, null, null, null, null);
+        ContentValues values = new ContentValues();
+        try {
+            while (cursor.moveToNext()) {
+                values.clear();
+                DatabaseUtils.cursorRowToContentValues(cursor, values);
+                sqLiteDatabase.insertOrThrow(to, null, WeatherCodec.encode(values));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
+        // Its triggers go along with the location table
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LOCATION_SEARCH_TABLE);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        WeatherHistory.dropAll(sqLiteDatabase);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.text.TextUtils;
+
+import com.example.android.weather.app.data.WeatherContract.HistoryEntry;
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Keeps the days that have passed in one table per month, e.g. history_201512 for December
+ * 2015.  Moving a day into the history is an insert into its month's table, and forgetting a
+ * month is a DROP TABLE, which costs the same however many rows the month holds.
+ *
+ * The tables are made as they're first needed, so the schema version doesn't change with them.
+ * They store the weather encoded by {@link WeatherCodec}, as the weather table does, and
+ * queries decode it.  All of these have to be called inside a transaction by the provider.
+ */
+class WeatherHistory {
+
+    // The columns that are kept, which are all of the weather table's but its _ID
+    static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // What a query returns when it isn't given a projection
+    static final String[] DEFAULT_PROJECTION;
+
+    static {
+        DEFAULT_PROJECTION = new String[COLUMNS.length + 1];
+        DEFAULT_PROJECTION[0] = HistoryEntry._ID;
+        System.arraycopy(COLUMNS, 0, DEFAULT_PROJECTION, 1, COLUMNS.length);
+    }
+
+    static final String COLUMN_LIST = TextUtils.join(", ", COLUMNS);
+
+    private WeatherHistory() {
+    }
+
+    /**
+     * @return the month of a date, as the year times 100 plus the month, e.g. 201512.
+     */
+    static int getMonth(long date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * @return the month a number of months before or after the given one.
+     */
+    static int addMonths(int month, int count) {
+        int months = (month / 100) * 12 + (month % 100 - 1) + count;
+        return (months / 12) * 100 + months % 12 + 1;
+    }
+
+    /**
+     * @return the first millisecond of a month, in local time like the dates we store.
+     */
+    static long getMonthStart(int month) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(month / 100, month % 100 - 1, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    static String getTableName(int month) {
+        return HistoryEntry.TABLE_PREFIX + month;
+    }
+
+    static void createTable(SQLiteDatabase db, int month) {
+        // Only the last version of a day is kept, and the key gives queries by location and
+        // date an index for free
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + getTableName(month) + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+                " PRIMARY KEY (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + "));");
+    }
+
+    /**
+     * @return the months that have history, oldest first.
+     */
+    static List<Integer> getMonths(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'" +
+                " AND name LIKE ? ESCAPE '\\'", new String[]{
+                HistoryEntry.TABLE_PREFIX.replace("_", "\\_") + "%"});
+        List<Integer> months = new ArrayList<Integer>();
+        try {
+            while (cursor.moveToNext()) {
+                try {
+                    months.add(Integer.parseInt(
+                            cursor.getString(0).substring(HistoryEntry.TABLE_PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(months);
+        return months;
+    }
+
+    /**
+     * Moves the weather rows that match the selection, which is on the stored columns, into the
+     * history.  They are copied as they're stored.
+     *
+     * @return the number of rows moved.
+     */
+    static int archive(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        String where = TextUtils.isEmpty(selection) ? "1" : "(" + selection + ")";
+
+        // Find which months the rows fall in, without reading the rows themselves
+        TreeSet<Integer> months = new TreeSet<Integer>();
+        Cursor cursor = db.rawQuery("SELECT DISTINCT " + WeatherEntry.COLUMN_DATE + " FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE " + where, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                months.add(getMonth(WeatherCodec.getDate(cursor.getInt(0))));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (months.isEmpty()) {
+            return 0;
+        }
+
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[argCount + 2];
+        if (argCount > 0) {
+            System.arraycopy(selectionArgs, 0, args, 0, argCount);
+        }
+        for (int month : months) {
+            createTable(db, month);
+            args[argCount] = Integer.toString(WeatherCodec.getJulianDay(getMonthStart(month)));
+            args[argCount + 1] = Integer.toString(
+                    WeatherCodec.getJulianDay(getMonthStart(addMonths(month, 1))));
+            db.execSQL("INSERT OR REPLACE INTO " + getTableName(month) + " (" + COLUMN_LIST +
+                    ") SELECT " + COLUMN_LIST + " FROM " + WeatherEntry.TABLE_NAME +
+                    " WHERE " + where + " AND " + WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherEntry.COLUMN_DATE + " < ?", args);
+        }
+        return db.delete(WeatherEntry.TABLE_NAME, selection, selectionArgs);
+    }
+
+    /**
+     * Drops every month of history that ended more than retainMonths whole months before now,
+     * so with a retention of 1 only this month and last month are kept.
+     *
+     * @return the number of months dropped.
+     */
+    static int dropExpired(SQLiteDatabase db, int retainMonths, long now) {
+        int oldestKept = addMonths(getMonth(now), -retainMonths);
+        int dropped = 0;
+        for (int month : getMonths(db)) {
+            if (month >= oldestKept) {
+                break;
+            }
+            db.execSQL("DROP TABLE IF EXISTS " + getTableName(month));
+            dropped++;
+        }
+        return dropped;
+    }
+
+    /**
+     * Drops all the history, for when the database starts over.
+     */
+    static void dropAll(SQLiteDatabase db) {
+        for (int month : getMonths(db)) {
+            db.execSQL("DROP TABLE IF EXISTS " + getTableName(month));
+        }
+    }
+
+    /**
+     * @return the history tables that overlap two dates, oldest first.
+     */
+    static List<String> getTablesInRange(SQLiteDatabase db, long startDate, long endDate) {
+        List<String> tables = new ArrayList<String>();
+        for (int month : getMonths(db)) {
+            if (getMonthStart(month) <= endDate
+                    && getMonthStart(addMonths(month, 1)) > startDate) {
+                tables.add(getTableName(month));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Builds a UNION ALL of a location's rows between two dates, both inclusive, from each of
+     * the tables, which can be the weather table as well as history tables.  The rows are read
+     * as they're stored, and the arguments the query needs are added to args.
+     */
+    static String buildRangeUnion(List<String> tables, String columns, long locationId,
+                                  long startDate, long endDate, List<String> args) {
+        List<String> selects = new ArrayList<String>();
+        for (String table : tables) {
+            selects.add("SELECT " + columns + " FROM " + table + " WHERE " +
+                    WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " <= ?");
+            args.add(Long.toString(locationId));
+            args.add(Integer.toString(WeatherCodec.getFirstJulianDay(startDate)));
+            args.add(Integer.toString(WeatherCodec.getLastJulianDay(endDate)));
+        }
+        return TextUtils.join(" UNION ALL ", selects);
+    }
+
+    /**
+     * Reads a location's history between two dates, both inclusive, from just the months that
+     * overlap them.
+     *
+     * @return the cursor, or null if there is no history in the range.
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, long locationId,
+                        long startDate, long endDate, String sortOrder, String limit) {
+        List<String> monthTables = getTablesInRange(db, startDate, endDate);
+        if (monthTables.isEmpty()) {
+            return null;
+        }
+        List<String> args = new ArrayList<String>();
+        String union = buildRangeUnion(monthTables, COLUMN_LIST, locationId, startDate, endDate,
+                args);
+
+        // The _ID is the date, decoded like the rest
+        String[] decoded = WeatherCodec.decodeProjection(
+                projection != null ? projection : DEFAULT_PROJECTION, null);
+        for (int i = 0; i < decoded.length; i++) {
+            if (HistoryEntry._ID.equals(decoded[i])) {
+                decoded[i] = WeatherCodec.decodeDate(WeatherEntry.COLUMN_DATE) + " AS " +
+                        HistoryEntry._ID;
+            }
+        }
+        // The months are in order, so the union already is unless asked otherwise
+        String sql = SQLiteQueryBuilder.buildQueryString(false, "(" + union + ")", decoded,
+                null, null, null, sortOrder, limit);
+        return db.rawQuery(sql, args.toArray(new String[args.size()]));
+    }
+}
@@ -17,12 +17,25 @@ package com.example.android.weather.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,12 +43,38 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // The forecasts most recently read, which everything showing the weather asks for in turn
+    private final ForecastCache mForecastCache = new ForecastCache();
+
+    // Set while applyBatch() runs on this thread
+    private final ThreadLocal<BatchState> mBatch = new ThreadLocal<BatchState>();
+
+    private static class BatchState {
+        // Changes to tell observers about once the batch commits
+        final Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        // Shared by the batch's operations
+        WeatherWriter writer;
+        // Weather to drop from the cache, and tell observers of, once the batch commits
+        final WeatherChanges weatherChanges = new WeatherChanges();
+    }
+
+    // Past this many days, observers are told that the location changed rather than each day
+    static final int MAX_NOTIFIED_DATES = 4;
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS_WITH_LOCATION = 103;
     static final int LOCATION = 300;
+    static final int LOCATION_SEARCH = 301;
+    static final int LOCATION_NEAREST = 302;
+    static final int HISTORY_WITH_LOCATION = 401;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // Search terms shorter than this only match whole words.  A single letter is the start of
+    // so many words that looking them all up would take too long to keep up with typing.
+    static final int MIN_PREFIX_LENGTH = 2;
+
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,25 +91,206 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //weather.location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND date = ?
+    static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //location._id IN (SELECT docid FROM location_search WHERE location_search MATCH ?)
+    static final String sLocationSearchSelection =
+            WeatherContract.LocationEntry._ID + " IN (SELECT docid FROM " +
+                    WeatherDbHelper.LOCATION_SEARCH_TABLE + " WHERE " +
+                    WeatherDbHelper.LOCATION_SEARCH_TABLE + " MATCH ?)";
+
+    // Columns that can be read from the weather table without joining the location table
+    static final Set<String> sWeatherColumns = new HashSet<String>(Arrays.asList(
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES));
+
+    // Columns of the location table that are only there for syncing, which no forecast shows
+    static final Set<String> sLocationSyncColumns = new HashSet<String>(Arrays.asList(
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED));
+
+    /**
+     * @return true if every column in the projection comes from the weather table
+     */
+    private static boolean isWeatherOnlyProjection(String[] projection) {
+        if (projection == null) {
+            // All columns, including the location's
+            return false;
+        }
+        final String weatherPrefix = WeatherContract.WeatherEntry.TABLE_NAME + ".";
+        for (String column : projection) {
+            if (column.startsWith(weatherPrefix)) {
+                column = column.substring(weatherPrefix.length());
+            }
+            if (!sWeatherColumns.contains(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Turns a location setting into its _id, from the cache if we've seen it before.
+     *
+     * @return the location's _id, or -1 if there is no such location
+     */
+    private long getLocationId(String locationSetting) {
+        Long cachedId = LocationIdCache.get(locationSetting);
+        if (cachedId != null) {
+            return cachedId;
+        }
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            long locationId = cursor.getLong(0);
+            LocationIdCache.put(locationSetting, locationId);
+            return locationId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Turns a location's _id back into its setting, which is what observers know it by.
+     *
+     * @return the location's setting, or null if there is no such location
+     */
+    private String getLocationSetting(long locationId) {
+        String cachedSetting = LocationIdCache.getLocationSetting(locationId);
+        if (cachedSetting != null) {
+            return cachedSetting;
+        }
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            String locationSetting = cursor.getString(0);
+            LocationIdCache.put(locationSetting, locationId);
+            return locationSetting;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Queries the weather for a known location by its _id.  The location table is only joined
+     * if the projection asks for some of its columns.
+     *
+     * The selection is on the stored columns, and the columns are read decoded.
+     */
+    private Cursor queryWeatherByLocationId(long locationId, String[] projection,
+                                            String selection, String[] selectionArgs,
+                                            String sortOrder, String limit) {
+        if (isWeatherOnlyProjection(projection)) {
+            return mOpenHelper.getReadableDatabase().query(
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherCodec.decodeProjection(projection,
+                            WeatherContract.WeatherEntry.TABLE_NAME),
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    WeatherCodec.buildStoredSortOrder(sortOrder),
+                    limit);
+        }
+        return queryWeatherWithLocation(projection, selection, selectionArgs, sortOrder, limit);
+    }
+
+    /**
+     * Queries the weather joined with the location table, reading the columns decoded.
+     */
+    private Cursor queryWeatherWithLocation(String[] projection, String selection,
+                                            String[] selectionArgs, String sortOrder,
+                                            String limit) {
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                WeatherCodec.decodeJoinedProjection(projection),
+                selection,
+                selectionArgs,
+                null,
+                null,
+                WeatherCodec.buildStoredSortOrder(sortOrder),
+                limit);
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long startDate = WeatherContract.getFirstDateFromUri(uri,
+                WeatherContract.WeatherEntry.getStartDateFromUri(uri));
+        // Dates are stored as Julian days
+        String startDay = Integer.toString(WeatherCodec.getFirstJulianDay(startDate));
+        String limit = WeatherContract.getLimitFromUri(uri);
+        if (limit != null && sortOrder == null) {
+            // Pages are only pages if they come in order
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
+
+        long locationId = getLocationId(locationSetting);
+        if (locationId != -1) {
+            if (startDate == 0) {
+                return queryWeatherByLocationId(locationId, projection, sLocationIdSelection,
+                        new String[]{Long.toString(locationId)}, sortOrder, limit);
+            }
+            return queryWeatherByLocationId(locationId, projection,
+                    sLocationIdWithStartDateSelection,
+                    new String[]{Long.toString(locationId), startDay}, sortOrder, limit);
+        }
 
         String[] selectionArgs;
         String selection;
@@ -79,33 +299,192 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+            selectionArgs = new String[]{locationSetting, startDay};
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return queryWeatherWithLocation(projection, selection, selectionArgs, sortOrder, limit);
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        String day = Integer.toString(WeatherCodec.getJulianDay(
+                WeatherContract.WeatherEntry.getDateFromUri(uri)));
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        long locationId = getLocationId(locationSetting);
+        if (locationId != -1) {
+            return queryWeatherByLocationId(locationId, projection, sLocationIdAndDaySelection,
+                    new String[]{Long.toString(locationId), day}, sortOrder, null);
+        }
+
+        return queryWeatherWithLocation(projection, sLocationSettingAndDaySelection,
+                new String[]{locationSetting, day}, sortOrder, null);
+    }
+
+    /**
+     * Answers the forecast URIs from the cache if it can, and otherwise from the database,
+     * keeping a copy of the results for next time.
+     */
+    private Cursor getForecast(Uri uri, int match, String[] projection, String sortOrder) {
+        long locationId = -1;
+        String key = null;
+        long generation = 0;
+        // Pages come and go as a list scrolls, and would only push the whole forecasts out
+        boolean paged = WeatherContract.getLimitFromUri(uri) != null
+                || uri.getQueryParameter(WeatherContract.PARAM_AFTER_DATE) != null;
+        if (ForecastCache.isSupported() && !paged) {
+            locationId = getLocationId(
+                    WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+            if (locationId != -1) {
+                key = ForecastCache.buildKey(uri, projection, sortOrder);
+                Cursor cached = mForecastCache.get(locationId, key);
+                if (cached != null) {
+                    return cached;
+                }
+                generation = mForecastCache.getGeneration();
+            }
+        }
+
+        Cursor cursor;
+        if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+            cursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+        } else {
+            cursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+        if (key == null) {
+            return cursor;
+        }
+        return mForecastCache.put(locationId, key, cursor, generation);
+    }
+
+    /**
+     * Answers {@link WeatherContract.WeatherEntry#METHOD_GET_TODAY} from the cache if it can,
+     * and otherwise reads the one row it needs.
+     *
+     * @return the location's weather for the first day from today on, or null if there is none
+     */
+    private Bundle getTodayWeather(String locationSetting) {
+        long locationId = locationSetting != null ? getLocationId(locationSetting) : -1;
+        if (locationId == -1) {
+            return null;
+        }
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Bundle cached = mForecastCache.getToday(locationId, today);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mForecastCache.getGeneration();
+        Cursor cursor = queryWeatherByLocationId(locationId,
+                WeatherContract.WeatherEntry.TODAY_COLUMNS,
+                sLocationIdWithStartDateSelection,
+                new String[]{Long.toString(locationId),
+                        Integer.toString(WeatherCodec.getJulianDay(today))},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                "1");
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Bundle todayWeather = TodayWeather.fromCursor(cursor);
+            mForecastCache.putToday(locationId, today, todayWeather, generation);
+            return todayWeather;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor getStatsByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.StatsEntry.getLocationSettingFromUri(uri);
+        long locationId = getLocationId(locationSetting);
+        if (locationId == -1) {
+            return new MatrixCursor(
+                    projection != null ? projection : WeatherStats.DEFAULT_PROJECTION);
+        }
+        return WeatherStats.query(mOpenHelper.getReadableDatabase(), projection, locationId,
+                WeatherContract.StatsEntry.getFromDateFromUri(uri),
+                WeatherContract.StatsEntry.getToDateFromUri(uri),
+                WeatherContract.StatsEntry.getGroupFromUri(uri), sortOrder);
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        long locationId = getLocationId(locationSetting);
+        Cursor cursor = null;
+        if (locationId != -1) {
+            String limit = WeatherContract.getLimitFromUri(uri);
+            if (limit != null && sortOrder == null) {
+                sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+            }
+            cursor = WeatherHistory.query(mOpenHelper.getReadableDatabase(), projection,
+                    locationId, WeatherContract.getFirstDateFromUri(uri,
+                            WeatherContract.HistoryEntry.getStartDateFromUri(uri)),
+                    WeatherContract.HistoryEntry.getEndDateFromUri(uri), sortOrder, limit);
+        }
+        if (cursor == null) {
+            // No history for this location, or none at all yet
+            cursor = new MatrixCursor(
+                    projection != null ? projection : WeatherHistory.DEFAULT_PROJECTION);
+        }
+        return cursor;
+    }
+
+    /**
+     * Looks the search's words up in the full-text index, and reads the locations it finds by
+     * their ids.  Without a sort order they come in the order they were added.
+     */
+    private Cursor searchLocations(Uri uri, String[] projection, String selection,
+                                   String[] selectionArgs, String sortOrder) {
+        String match = buildMatchQuery(WeatherContract.LocationEntry.getSearchQueryFromUri(uri));
+        if (match == null) {
+            // Nothing to search for yet
+            return new MatrixCursor(projection != null ? projection : new String[]{
+                    WeatherContract.LocationEntry._ID,
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME});
+        }
+        String searchSelection = sLocationSearchSelection;
+        String[] searchArgs = {match};
+        if (selection != null) {
+            searchSelection += " AND (" + selection + ")";
+            if (selectionArgs != null) {
+                searchArgs = new String[selectionArgs.length + 1];
+                searchArgs[0] = match;
+                System.arraycopy(selectionArgs, 0, searchArgs, 1, selectionArgs.length);
+            }
+        }
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                searchSelection,
+                searchArgs,
                 null,
                 null,
-                sortOrder
-        );
+                sortOrder,
+                WeatherContract.getLimitFromUri(uri));
+    }
+
+    /**
+     * @return the full-text query for what the user typed, where every word has to match the
+     * start of a word, or null if there are no words.  The words are split the way the index's
+     * tokenizer splits them, and each is quoted so that none of them is taken for an operator.
+     */
+    static String buildMatchQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.split("[^A-Za-z0-9\\u0080-\\uffff]+")) {
+            if (word.length() == 0) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(word);
+            if (word.length() >= MIN_PREFIX_LENGTH) {
+                match.append('*');
+            }
+            match.append('"');
+        }
+        return match.length() > 0 ? match.toString() : null;
     }
 
     /*
@@ -128,8 +507,16 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS_WITH_LOCATION);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_SEARCH,
+                LOCATION_SEARCH);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAREST,
+                LOCATION_NEAREST);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
         return matcher;
     }
 
@@ -162,8 +549,16 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS_WITH_LOCATION:
+                return WeatherContract.StatsEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_SEARCH:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_NEAREST:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,28 +570,28 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        Uri notificationUri = uri;
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getForecast(uri, match, projection, sortOrder);
                 break;
             }
             // "weather"
             case WEATHER: {
+                // The client's selection and sort order are on the decoded columns
                 retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherCodec.DECODED_TABLE,
                         projection,
                         selection,
                         selectionArgs,
                         null,
                         null,
-                        sortOrder
+                        sortOrder,
+                        WeatherContract.getLimitFromUri(uri)
                 );
                 break;
             }
@@ -213,11 +608,40 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/search?q="
+            case LOCATION_SEARCH: {
+                retCursor = searchLocations(uri, projection, selection, selectionArgs,
+                        sortOrder);
+                break;
+            }
+            // "location/nearest?lat=&lon="
+            case LOCATION_NEAREST: {
+                // Always nearest first, so there's no sort order to take
+                retCursor = NearestLocations.query(mOpenHelper.getReadableDatabase(), projection,
+                        WeatherContract.LocationEntry.getLatitudeFromUri(uri),
+                        WeatherContract.LocationEntry.getLongitudeFromUri(uri),
+                        WeatherContract.LocationEntry.getCountFromUri(uri),
+                        selection, selectionArgs);
+                break;
+            }
+            // "weather/*/stats"
+            case WEATHER_STATS_WITH_LOCATION: {
+                retCursor = getStatsByLocationSetting(uri, projection, sortOrder);
+                // Stats cover the location's days, so they change along with any of them
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.StatsEntry.getLocationSettingFromUri(uri));
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
@@ -232,26 +656,42 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
+                if (WeatherBatch.isBatchInsert(values)) {
+                    // A whole batch of weather, as a batch of operations carries it
+                    WeatherBatch batch = WeatherBatch.fromInsertValues(values);
+                    if (batch == null) {
+                        throw new IllegalArgumentException("Not a weather batch: " + values);
+                    }
+                    return WeatherContract.WeatherEntry.buildWeatherCountUri(writeBatch(db, batch,
+                            WeatherContract.WeatherEntry.isUpsertUri(uri)));
+                }
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        WeatherCodec.encode(values));
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                onWeatherChanged(new ContentValues[]{values});
+                return returnUri;
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
+                if ( _id > 0 ) {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
+                    String locationSetting = values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    if (locationSetting != null) {
+                        LocationIdCache.put(locationSetting, _id);
+                    }
+                } else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -263,20 +703,55 @@ public class WeatherProvider extends ContentProvider {
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+            case WEATHER: {
+                int retainMonths = WeatherContract.WeatherEntry.getArchiveMonthsFromUri(uri);
+                String storedSelection = WeatherCodec.buildStoredSelection(selection,
+                        selectionArgs);
+                String[] storedArgs = WeatherCodec.buildStoredSelectionArgs(selection,
+                        selectionArgs);
+                WeatherChanges changes;
+                int monthsDropped = 0;
+                db.beginTransaction();
+                try {
+                    // Read which days are going first, so only their observers hear about it
+                    changes = WeatherChanges.query(db, storedSelection, storedArgs);
+                    if (retainMonths < 0) {
+                        rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                                storedSelection, storedArgs);
+                    } else {
+                        rowsDeleted = WeatherHistory.archive(db, storedSelection, storedArgs);
+                        monthsDropped = WeatherHistory.dropExpired(db, retainMonths,
+                                System.currentTimeMillis());
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    onWeatherChanged(changes);
+                }
+                if (monthsDropped != 0) {
+                    notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+                } else if (rowsDeleted != 0 && retainMonths >= 0) {
+                    notifyHistoryChanged(changes);
+                }
+                return rowsDeleted;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // We can't tell which locations went, so forget them all
+                LocationIdCache.invalidate();
+                if (rowsDeleted != 0) {
+                    onAllWeatherChanged();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -299,18 +774,48 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                String storedSelection = WeatherCodec.buildStoredSelection(selection,
                         selectionArgs);
-                break;
+                String[] storedArgs = WeatherCodec.buildStoredSelectionArgs(selection,
+                        selectionArgs);
+                WeatherChanges changes;
+                db.beginTransaction();
+                try {
+                    changes = WeatherChanges.query(db, storedSelection, storedArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherCodec.encode(values), storedSelection, storedArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // The rows moved somewhere new as well
+                    changes.addAllLocations();
+                }
+                if (rowsUpdated != 0) {
+                    onWeatherChanged(changes);
+                }
+                return rowsUpdated;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                // Only a new location setting or _id would make the cache wrong
+                if (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                        || values.containsKey(WeatherContract.LocationEntry._ID)) {
+                    LocationIdCache.invalidate();
+                }
+                // The forecasts carry the location's columns too, though not the ones for syncing
+                if (rowsUpdated != 0
+                        && !sLocationSyncColumns.containsAll(values.keySet())) {
+                    onAllWeatherChanged();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -321,27 +826,369 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    int changedCount = upsertWeather(db, values);
+                    onWritesCommitted(db, changedCount);
+                    return changedCount;
+                }
                 db.beginTransaction();
+                WeatherWriter writer = new WeatherWriter(db);
                 int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = writer.insert(value);
                         if (_id != -1) {
                             returnCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    writer.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (returnCount != 0) {
+                    onWeatherChanged(values);
+                }
+                onWritesCommitted(db, returnCount);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes the given weather rows, skipping any that match what is already stored for their
+     * location and date and updating the rest in place.  Replacing them instead would delete
+     * and reinsert every row.  The rows go through {@link WeatherWriter#write} as a
+     * {@link WeatherBatch}, the same as those of call() and applyBatch(), so that there's one
+     * way of telling whether a row changed.
+     *
+     * Only the days that were written are dropped from the cache and told to observers, so
+     * nothing reloads if every day was already up to date.
+     *
+     * @return the number of rows inserted or updated
+     */
+    private int upsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        int changedCount;
+        WeatherChanges changes = new WeatherChanges();
+        db.beginTransaction();
+        WeatherWriter writer = openWriter(db);
+        try {
+            WeatherBatch batch = new WeatherBatch(values.length);
+            List<ContentValues> otherValues = new ArrayList<ContentValues>();
+            for (ContentValues value : values) {
+                // Normalized in place, as an insert does
+                writer.normalizeDate(value);
+                if (!batch.add(value)) {
+                    otherValues.add(value);
+                }
+            }
+
+            changedCount = writer.write(batch, true, changes);
+            // Rows missing a column have nothing to compare with, so let the constraints sort
+            // them out
+            for (ContentValues value : otherValues) {
+                if (writer.insert(value) != -1) {
+                    changedCount++;
+                    changes.add(new ContentValues[]{value});
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            closeWriter(writer);
+            db.endTransaction();
+        }
+        onWeatherChanged(changes);
+        return changedCount;
+    }
+
+    /**
+     * Runs the operations in one transaction, and only tells observers about the changes once
+     * it has committed, each URI once.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mBatch.get() != null) {
+            // Already part of a batch, which will commit and notify for this one
+            return super.applyBatch(operations);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        ContentProviderResult[] results;
+        boolean successful = false;
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            if (batch.writer != null) {
+                batch.writer.close();
+            }
+            db.endTransaction();
+            mBatch.remove();
+            if (!successful) {
+                // Locations inserted by the batch were rolled back along with it
+                LocationIdCache.invalidate();
+            }
+        }
+
+        invalidateForecasts(batch.weatherChanges);
+        batch.changedUris.addAll(getWeatherChangeUris(batch.weatherChanges));
+        for (Uri uri : collapseUris(batch.changedUris)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        onWritesCommitted(db, countRows(results));
+        return results;
+    }
+
+    /**
+     * @return how many rows the operations of a batch wrote, as far as their results tell
+     */
+    private static int countRows(ContentProviderResult[] results) {
+        int rowCount = 0;
+        for (ContentProviderResult result : results) {
+            if (result.count != null) {
+                rowCount += result.count;
+            } else if (result.uri != null) {
+                // An insert wrote a row, unless it was a whole batch of weather
+                rowCount += result.uri.getQueryParameter(
+                        WeatherContract.WeatherEntry.PARAM_COUNT) != null
+                        ? WeatherContract.WeatherEntry.getCountFromUri(result.uri) : 1;
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * Lets the helper checkpoint the log now and then, once writes are committed.  Writes that
+     * are part of a batch are counted when the batch commits.
+     */
+    private void onWritesCommitted(SQLiteDatabase db, int rowCount) {
+        if (mBatch.get() == null) {
+            mOpenHelper.onWritesCommitted(db, rowCount);
+        }
+    }
+
+    /**
+     * Drops the cached forecasts of the locations whose weather changed and tells their
+     * observers, or saves that for the end of the batch if one is running, since until it
+     * commits everyone still reads the old weather.
+     */
+    private void onWeatherChanged(WeatherChanges changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.weatherChanges.addAll(changes);
+            return;
+        }
+        invalidateForecasts(changes);
+        for (Uri uri : getWeatherChangeUris(changes)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private void onWeatherChanged(ContentValues[] weatherValues) {
+        WeatherChanges changes = new WeatherChanges();
+        changes.add(weatherValues);
+        onWeatherChanged(changes);
+    }
+
+    /**
+     * For changes that could have been to any location's weather.
+     */
+    private void onAllWeatherChanged() {
+        WeatherChanges changes = new WeatherChanges();
+        changes.addAllLocations();
+        onWeatherChanged(changes);
+    }
+
+    private void invalidateForecasts(WeatherChanges changes) {
+        if (changes.isAllLocations()) {
+            mForecastCache.invalidateAll();
+            return;
+        }
+        for (long locationId : changes.getLocationIds()) {
+            mForecastCache.invalidate(locationId);
+        }
+    }
+
+    /**
+     * @return the URIs to tell observers about the changes on: weather/[location]/[date] for
+     * each day that changed, or weather/[location] when a lot of its days did.  Cursors for a
+     * location's forecast are told about any of its days, and a cursor for one day only about
+     * that day, so a change to one location doesn't reload what shows another.
+     */
+    private Set<Uri> getWeatherChangeUris(WeatherChanges changes) {
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        if (changes.isAllLocations()) {
+            uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+            return uris;
+        }
+        for (long locationId : changes.getLocationIds()) {
+            String locationSetting = getLocationSetting(locationId);
+            if (locationSetting == null) {
+                // The location is gone, so we can't tell who was watching it
+                uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                continue;
+            }
+            Uri locationUri = WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+            Set<Long> dates = changes.getDates(locationId);
+            if (dates == null || dates.size() > MAX_NOTIFIED_DATES) {
+                uris.add(locationUri);
+                continue;
+            }
+            for (long date : dates) {
+                uris.add(locationUri.buildUpon().appendPath(Long.toString(date)).build());
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * Tells the observers of the history of the locations whose days were archived.
+     */
+    private void notifyHistoryChanged(WeatherChanges changes) {
+        if (changes.isAllLocations()) {
+            notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+            return;
+        }
+        for (long locationId : changes.getLocationIds()) {
+            String locationSetting = getLocationSetting(locationId);
+            notifyChange(locationSetting != null
+                    ? WeatherContract.HistoryEntry.buildHistoryLocation(locationSetting)
+                    : WeatherContract.HistoryEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Tells observers about a change, or saves it for the end of the batch if one is running.
+     */
+    private void notifyChange(Uri uri) {
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.changedUris.add(uri);
+            return;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Drops the query from each URI, and any URI whose parent is also there, since observers
+     * of a URI hear about changes to its parents.
+     */
+    static Set<Uri> collapseUris(Set<Uri> uris) {
+        Set<Uri> collapsed = new LinkedHashSet<Uri>();
+        for (Uri uri : uris) {
+            collapsed.add(uri.buildUpon().clearQuery().build());
+        }
+        Iterator<Uri> iterator = collapsed.iterator();
+        while (iterator.hasNext()) {
+            Uri uri = iterator.next();
+            for (Uri other : collapsed) {
+                if (other != uri && isAncestor(other, uri)) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+        return collapsed;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() < segments.size()
+                && segments.subList(0, ancestorSegments.size()).equals(ancestorSegments);
+    }
+
+    /**
+     * @return the batch's writer if this is part of one, so that its statements are only
+     * compiled once, otherwise a new writer
+     */
+    private WeatherWriter openWriter(SQLiteDatabase db) {
+        BatchState batch = mBatch.get();
+        if (batch == null) {
+            return new WeatherWriter(db);
+        }
+        if (batch.writer == null) {
+            batch.writer = new WeatherWriter(db);
+        }
+        return batch.writer;
+    }
+
+    private void closeWriter(WeatherWriter writer) {
+        BatchState batch = mBatch.get();
+        if (batch == null || batch.writer != writer) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes a batch of weather in one transaction, or in the batch of operations' if this is
+     * part of one.
+     *
+     * @return the number of rows inserted or updated
+     */
+    private int writeBatch(SQLiteDatabase db, WeatherBatch batch, boolean upsert) {
+        int changedCount;
+        WeatherChanges changes = new WeatherChanges();
+        db.beginTransaction();
+        WeatherWriter writer = openWriter(db);
+        try {
+            changedCount = writer.write(batch, upsert, changes);
+            db.setTransactionSuccessful();
+        } finally {
+            closeWriter(writer);
+            db.endTransaction();
+        }
+        // Nothing to reload if every day was already up to date
+        onWeatherChanged(changes);
+        onWritesCommitted(db, changedCount);
+        return changedCount;
+    }
+
+    /**
+     * Handles {@link WeatherContract.WeatherEntry#METHOD_BULK_INSERT}, which writes a
+     * {@link WeatherBatch} in one transaction straight from its arrays, and
+     * {@link WeatherContract.WeatherEntry#METHOD_GET_TODAY}, which reads today's weather
+     * without the cost of a cursor.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_GET_TODAY.equals(method)) {
+            return getTodayWeather(arg);
+        }
+        if (WeatherContract.WeatherEntry.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.WeatherEntry.EXTRA_CACHE_HITS,
+                    mForecastCache.getHitCount());
+            result.putLong(WeatherContract.WeatherEntry.EXTRA_CACHE_MISSES,
+                    mForecastCache.getMissCount());
+            return result;
+        }
+        if (!WeatherContract.WeatherEntry.METHOD_BULK_INSERT.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        WeatherBatch batch = WeatherBatch.fromBundle(extras);
+        if (batch == null) {
+            throw new IllegalArgumentException("Not a weather batch: " + extras);
+        }
+        int changedCount = writeBatch(mOpenHelper.getWritableDatabase(), batch,
+                WeatherContract.WeatherEntry.PARAM_UPSERT.equals(arg));
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_COUNT, changedCount);
+        return result;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.example.android.weather.app.data.WeatherContract.StatsEntry;
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Works out the statistics for the stats URI with a GROUP BY over a location's forecast and
+ * history, so only one row per period comes back out of SQLite instead of every day.  The
+ * days are aggregated as they're stored, and only the results are decoded.
+ */
+class WeatherStats {
+
+    // What each of the stats columns is over the days of a period
+    private static final HashMap<String, String> sProjectionMap = new HashMap<String, String>();
+
+    // What a query returns when it isn't given a projection
+    static final String[] DEFAULT_PROJECTION = {
+            StatsEntry._ID,
+            StatsEntry.COLUMN_START_DATE,
+            StatsEntry.COLUMN_END_DATE,
+            StatsEntry.COLUMN_DAY_COUNT,
+            StatsEntry.COLUMN_MIN_TEMP,
+            StatsEntry.COLUMN_MAX_TEMP,
+            StatsEntry.COLUMN_AVG_MIN_TEMP,
+            StatsEntry.COLUMN_AVG_MAX_TEMP,
+            StatsEntry.COLUMN_AVG_HUMIDITY,
+            StatsEntry.COLUMN_AVG_PRESSURE,
+            StatsEntry.COLUMN_AVG_WIND_SPEED,
+            StatsEntry.COLUMN_MAX_WIND_SPEED
+    };
+
+    static {
+        putDateAggregate(StatsEntry._ID, "MIN");
+        putDateAggregate(StatsEntry.COLUMN_START_DATE, "MIN");
+        putDateAggregate(StatsEntry.COLUMN_END_DATE, "MAX");
+        sProjectionMap.put(StatsEntry.COLUMN_DAY_COUNT, "COUNT(*) AS " +
+                StatsEntry.COLUMN_DAY_COUNT);
+        putAggregate(StatsEntry.COLUMN_MIN_TEMP, "MIN", WeatherEntry.COLUMN_MIN_TEMP);
+        putAggregate(StatsEntry.COLUMN_MAX_TEMP, "MAX", WeatherEntry.COLUMN_MAX_TEMP);
+        putAggregate(StatsEntry.COLUMN_AVG_MIN_TEMP, "AVG", WeatherEntry.COLUMN_MIN_TEMP);
+        putAggregate(StatsEntry.COLUMN_AVG_MAX_TEMP, "AVG", WeatherEntry.COLUMN_MAX_TEMP);
+        putAggregate(StatsEntry.COLUMN_AVG_HUMIDITY, "AVG", WeatherEntry.COLUMN_HUMIDITY);
+        putAggregate(StatsEntry.COLUMN_AVG_PRESSURE, "AVG", WeatherEntry.COLUMN_PRESSURE);
+        putAggregate(StatsEntry.COLUMN_AVG_WIND_SPEED, "AVG", WeatherEntry.COLUMN_WIND_SPEED);
+        putAggregate(StatsEntry.COLUMN_MAX_WIND_SPEED, "MAX", WeatherEntry.COLUMN_WIND_SPEED);
+    }
+
+    private static void putAggregate(String column, String function, String weatherColumn) {
+        sProjectionMap.put(column, WeatherCodec.decodeMeasurement(
+                function + "(" + weatherColumn + ")") + " AS " + column);
+    }
+
+    private static void putDateAggregate(String column, String function) {
+        sProjectionMap.put(column, WeatherCodec.decodeDate(
+                function + "(" + WeatherEntry.COLUMN_DATE + ")") + " AS " + column);
+    }
+
+    private WeatherStats() {
+    }
+
+    /**
+     * @return the expression that is the same for all the days of a period.
+     */
+    static String getGroupExpression(String group) {
+        if (StatsEntry.GROUP_DAY.equals(group)) {
+            // Every day is stored as its own Julian day already
+            return WeatherEntry.COLUMN_DATE;
+        }
+        // SQLite's date() reads a number as a Julian day, and they're local days already
+        String localDate = "date(" + WeatherEntry.COLUMN_DATE;
+        if (StatsEntry.GROUP_WEEK.equals(group)) {
+            // On to the Sunday that ends the week, and back to its Monday
+            return localDate + ", 'weekday 0', '-6 days')";
+        }
+        if (StatsEntry.GROUP_MONTH.equals(group)) {
+            return localDate + ", 'start of month')";
+        }
+        throw new IllegalArgumentException("Unknown stats group: " + group);
+    }
+
+    /**
+     * Works out a location's statistics between two dates, both inclusive, from the forecast
+     * and whichever months of history overlap them.
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, long locationId,
+                        long fromDate, long toDate, String group, String sortOrder) {
+        List<String> tables = new ArrayList<String>();
+        tables.add(WeatherEntry.TABLE_NAME);
+        tables.addAll(WeatherHistory.getTablesInRange(db, fromDate, toDate));
+        List<String> args = new ArrayList<String>();
+        String union = WeatherHistory.buildRangeUnion(tables, WeatherHistory.COLUMN_LIST,
+                locationId, fromDate, toDate, args);
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables("(" + union + ")");
+        builder.setProjectionMap(sProjectionMap);
+        // The union's arguments are the only ones, since the stats have no selection of their own
+        return builder.query(db,
+                projection != null ? projection : DEFAULT_PROJECTION,
+                null,
+                args.toArray(new String[args.size()]),
+                getGroupExpression(group),
+                null,
+                sortOrder != null ? sortOrder : StatsEntry.COLUMN_START_DATE + " ASC");
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.weather.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.weather.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes weather rows with statements that are compiled once, rather than having
+ * SQLiteDatabase.insert() build and compile the SQL again for every row.  Rows are given to it
+ * with the columns of {@link WeatherEntry}, and it stores them encoded by {@link WeatherCodec}.
+ *
+ * A writer is meant to last for one transaction, and must be closed at the end of it.
+ */
+class WeatherWriter {
+
+    private static final String LOG_TAG = WeatherWriter.class.getSimpleName();
+
+    // The order the statements bind their arguments in
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT;
+    private static final String SQL_UPDATE;
+
+    static {
+        StringBuilder insert = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME).append(" (");
+        StringBuilder values = new StringBuilder();
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(WeatherEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String separator = i == 0 ? "" : ", ";
+            insert.append(separator).append(COLUMNS[i]);
+            values.append(separator).append('?');
+            update.append(separator).append(COLUMNS[i]).append(" = ?");
+        }
+        SQL_INSERT = insert.append(") VALUES (").append(values).append(')').toString();
+        SQL_UPDATE = update.append(" WHERE ").append(WeatherEntry._ID).append(" = ?").toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdate;
+
+    // Normalizing a date needs a Time, so keep one along with the last day it found
+    private final Time mTime = new Time();
+    private long mDayStart = Long.MIN_VALUE;
+    private long mNextDayStart = Long.MIN_VALUE;
+    private int mJulianDay;
+
+    WeatherWriter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Same as {@link WeatherContract#normalizeDate(long)}, without making a new Time each time.
+     */
+    long normalizeDate(long date) {
+        if (date >= mDayStart && date < mNextDayStart) {
+            return mDayStart;
+        }
+        mTime.set(date);
+        mJulianDay = Time.getJulianDay(date, mTime.gmtoff);
+        mDayStart = mTime.setJulianDay(mJulianDay);
+        mNextDayStart = mTime.setJulianDay(mJulianDay + 1);
+        return mDayStart;
+    }
+
+    /**
+     * @return the local Julian day a date falls on, which is how it is stored
+     */
+    int getJulianDay(long date) {
+        normalizeDate(date);
+        return mJulianDay;
+    }
+
+    void normalizeDate(ContentValues values) {
+        if (values.containsKey(WeatherEntry.COLUMN_DATE)) {
+            long dateValue = values.getAsLong(WeatherEntry.COLUMN_DATE);
+            values.put(WeatherEntry.COLUMN_DATE, normalizeDate(dateValue));
+        }
+    }
+
+    /**
+     * Inserts a row, normalizing its date and encoding it on the way.
+     *
+     * @return the row ID of the new row, or -1 if it couldn't be inserted
+     */
+    long insert(ContentValues values) {
+        normalizeDate(values);
+        ContentValues encoded = encode(values);
+        for (String column : values.keySet()) {
+            if (indexOf(column) == -1) {
+                // Not a column the statement knows, so let SQLiteDatabase sort it out
+                return mDb.insert(WeatherEntry.TABLE_NAME, null, encoded);
+            }
+        }
+        SQLiteStatement insert = getInsert();
+        insert.clearBindings();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            bindObject(insert, i + 1, encoded.get(COLUMNS[i]));
+        }
+        return executeInsert(insert);
+    }
+
+    /**
+     * Same as {@link WeatherCodec#encode(ContentValues)}, without making a new Time each time.
+     */
+    ContentValues encode(ContentValues values) {
+        return WeatherCodec.encode(values, mTime);
+    }
+
+    /**
+     * Inserts a row of a batch, normalizing its date on the way.
+     *
+     * @return the row ID of the new row, or -1 if it couldn't be inserted
+     */
+    long insert(WeatherBatch batch, int row) {
+        SQLiteStatement insert = getInsert();
+        bindRow(insert, batch, row);
+        return executeInsert(insert);
+    }
+
+    /**
+     * Writes every row of a batch.
+     *
+     * @param upsert true to leave alone the rows that match the ones already stored for their
+     *               location and date
+     * @return the number of rows inserted or updated
+     */
+    int write(WeatherBatch batch, boolean upsert) {
+        return write(batch, upsert, null);
+    }
+
+    /**
+     * Writes every row of a batch, and adds the rows that were inserted or updated to the
+     * changes, if there are any to add to.
+     */
+    int write(WeatherBatch batch, boolean upsert, WeatherChanges changes) {
+        int changedCount = 0;
+        if (!upsert) {
+            for (int row = 0; row < batch.size(); row++) {
+                if (insert(batch, row) != -1) {
+                    changedCount++;
+                    onRowChanged(changes, batch, row);
+                }
+            }
+            return changedCount;
+        }
+
+        // Read what we have for each location once, rather than once per row
+        Map<Long, List<Integer>> rowsByLocation = new HashMap<Long, List<Integer>>();
+        for (int row = 0; row < batch.size(); row++) {
+            Long locationId = batch.getLocationId(row);
+            List<Integer> locationRows = rowsByLocation.get(locationId);
+            if (locationRows == null) {
+                locationRows = new ArrayList<Integer>();
+                rowsByLocation.put(locationId, locationRows);
+            }
+            locationRows.add(row);
+        }
+        for (Map.Entry<Long, List<Integer>> entry : rowsByLocation.entrySet()) {
+            changedCount += upsertLocation(batch, entry.getKey(), entry.getValue(), changes);
+        }
+        return changedCount;
+    }
+
+    private void onRowChanged(WeatherChanges changes, WeatherBatch batch, int row) {
+        if (changes != null) {
+            changes.add(batch.getLocationId(row), normalizeDate(batch.getDate(row)));
+        }
+    }
+
+    private int upsertLocation(WeatherBatch batch, long locationId, List<Integer> rows,
+                               WeatherChanges changes) {
+        String[] projection = new String[COLUMNS.length + 1];
+        System.arraycopy(COLUMNS, 0, projection, 0, COLUMNS.length);
+        // The _id goes last so that the columns line up with COLUMNS
+        projection[COLUMNS.length] = WeatherEntry._ID;
+        Cursor existing = mDb.query(WeatherEntry.TABLE_NAME,
+                projection,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        int changedCount = 0;
+        try {
+            int dateIndex = indexOf(WeatherEntry.COLUMN_DATE);
+            Map<Long, Integer> positionByDate = new HashMap<Long, Integer>();
+            while (existing.moveToNext()) {
+                positionByDate.put(existing.getLong(dateIndex), existing.getPosition());
+            }
+
+            for (int row : rows) {
+                Integer position = positionByDate.get((long) getJulianDay(batch.getDate(row)));
+                if (position == null) {
+                    if (insert(batch, row) != -1) {
+                        changedCount++;
+                        onRowChanged(changes, batch, row);
+                    }
+                    continue;
+                }
+                existing.moveToPosition(position);
+                if (matchesCurrentRow(existing, batch, row)) {
+                    continue;
+                }
+                SQLiteStatement update = getUpdate();
+                bindRow(update, batch, row);
+                update.bindLong(COLUMNS.length + 1, existing.getLong(COLUMNS.length));
+                // The row was just read in this transaction, so it's there to update
+                update.execute();
+                changedCount++;
+                onRowChanged(changes, batch, row);
+            }
+        } finally {
+            existing.close();
+        }
+        return changedCount;
+    }
+
+    /**
+     * @return true if the row of the batch, once encoded, matches the cursor's current row,
+     * which has its columns in the order of COLUMNS.  The location and date already match.
+     */
+    private boolean matchesCurrentRow(Cursor cursor, WeatherBatch batch, int row) {
+        String shortDesc = WeatherCodec.encodeDescription(batch.getWeatherId(row),
+                batch.getShortDesc(row));
+        String currentShortDesc = cursor.getString(3);
+        return cursor.getInt(2) == batch.getWeatherId(row)
+                && (shortDesc == null ? currentShortDesc == null : shortDesc.equals(currentShortDesc))
+                && cursor.getLong(4) == WeatherCodec.encodeMeasurement(batch.getMinTemp(row))
+                && cursor.getLong(5) == WeatherCodec.encodeMeasurement(batch.getMaxTemp(row))
+                && cursor.getLong(6) == WeatherCodec.encodeMeasurement(batch.getHumidity(row))
+                && cursor.getLong(7) == WeatherCodec.encodeMeasurement(batch.getPressure(row))
+                && cursor.getLong(8) == WeatherCodec.encodeMeasurement(batch.getWindSpeed(row))
+                && cursor.getLong(9) == WeatherCodec.encodeMeasurement(batch.getDegrees(row));
+    }
+
+    private void bindRow(SQLiteStatement statement, WeatherBatch batch, int row) {
+        statement.bindLong(1, batch.getLocationId(row));
+        statement.bindLong(2, getJulianDay(batch.getDate(row)));
+        statement.bindLong(3, batch.getWeatherId(row));
+        String shortDesc = WeatherCodec.encodeDescription(batch.getWeatherId(row),
+                batch.getShortDesc(row));
+        if (shortDesc == null) {
+            statement.bindNull(4);
+        } else {
+            statement.bindString(4, shortDesc);
+        }
+        statement.bindLong(5, WeatherCodec.encodeMeasurement(batch.getMinTemp(row)));
+        statement.bindLong(6, WeatherCodec.encodeMeasurement(batch.getMaxTemp(row)));
+        statement.bindLong(7, WeatherCodec.encodeMeasurement(batch.getHumidity(row)));
+        statement.bindLong(8, WeatherCodec.encodeMeasurement(batch.getPressure(row)));
+        statement.bindLong(9, WeatherCodec.encodeMeasurement(batch.getWindSpeed(row)));
+        statement.bindLong(10, WeatherCodec.encodeMeasurement(batch.getDegrees(row)));
+    }
+
+    private static void bindObject(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Like SQLiteDatabase.insert(), a row that breaks a constraint is logged rather than thrown.
+     */
+    private static long executeInsert(SQLiteStatement insert) {
+        try {
+            return insert.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting weather", e);
+            return -1;
+        }
+    }
+
+    private SQLiteStatement getInsert() {
+        if (mInsert == null) {
+            mInsert = mDb.compileStatement(SQL_INSERT);
+        }
+        return mInsert;
+    }
+
+    private SQLiteStatement getUpdate() {
+        if (mUpdate == null) {
+            mUpdate = mDb.compileStatement(SQL_UPDATE);
+        }
+        return mUpdate;
+    }
+
+    void close() {
+        if (mInsert != null) {
+            mInsert.close();
+            mInsert = null;
+        }
+        if (mUpdate != null) {
+            mUpdate.close();
+            mUpdate = null;
+        }
+    }
+}
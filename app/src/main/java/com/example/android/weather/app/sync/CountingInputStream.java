@@ -0,0 +1,57 @@
+package com.example.android.weather.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Passes a stream through unchanged while counting how many bytes were read from it.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private long mCount;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @return the number of bytes read or skipped so far
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = super.skip(byteCount);
+        if (skipped > 0) {
+            mCount += skipped;
+        }
+        return skipped;
+    }
+
+    // Marking would let the same bytes be counted twice
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.android.weather.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.weather.app.BuildConfig;
+import com.example.android.weather.app.data.WeatherBatch;
+import com.example.android.weather.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads and parses the forecast for one location.  A fetcher only reads from the
+ * database, so the sync adapter can run several of them at once and store all of their
+ * results together afterwards.
+ */
+class ForecastFetcher implements Callable<ForecastFetcher.Result> {
+
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    /**
+     * What happened when we fetched the forecast for a location.
+     */
+    static class Result {
+        final String locationSetting;
+        @SunshineSyncAdapter.LocationStatus final int status;
+        // The new forecast, or null if there isn't one to store
+        final ForecastCollector collector;
+
+        Result(String locationSetting, @SunshineSyncAdapter.LocationStatus int status,
+               ForecastCollector collector) {
+            this.locationSetting = locationSetting;
+            this.status = status;
+            this.collector = collector;
+        }
+    }
+
+    private final Context mContext;
+    private final String mLocationSetting;
+
+    ForecastFetcher(Context context, String locationSetting) {
+        mContext = context;
+        mLocationSetting = locationSetting;
+    }
+
+    @Override
+    public Result call() {
+        String locationQuery = mLocationSetting;
+
+        // These need to be declared outside the try/catch
+        // so that they can be closed and counted in the finally block.
+        HttpTransport.Call call = null;
+        // Count what came over the wire and what the parser saw after decompression
+        CountingInputStream wireStream = null;
+        CountingInputStream decodedStream = null;
+
+        try {
+            // Construct the URL for the OpenWeatherMap query
+            // Possible parameters are avaiable at OWM's forecast API page, at
+            // http://openweathermap.org/API#forecast
+            final String FORECAST_BASE_URL =
+                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
+            final String QUERY_PARAM = "q";
+            final String FORMAT_PARAM = "mode";
+            final String UNITS_PARAM = "units";
+            final String DAYS_PARAM = "cnt";
+            final String APPID_PARAM = "APPID";
+
+            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, locationQuery)
+                    .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                    .appendQueryParameter(UNITS_PARAM, UNITS)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .build();
+
+            URL url = new URL(builtUri.toString());
+
+            Map<String, String> requestProperties = new HashMap<String, String>();
+            // Ask for gzip ourselves rather than leave it to the platform, so that we can see
+            // the compressed size of the response as well as the decoded one
+            requestProperties.put("Accept-Encoding", "gzip");
+
+            // If we've fetched this location before, only ask for the forecast if it changed
+            String[] validators = getValidators(locationQuery);
+            boolean revalidating = false;
+            if (validators != null) {
+                if (validators[0] != null) {
+                    requestProperties.put("If-None-Match", validators[0]);
+                    revalidating = true;
+                }
+                if (validators[1] != null) {
+                    requestProperties.put("If-Modified-Since", validators[1]);
+                    revalidating = true;
+                }
+            }
+
+            // Connect to OpenWeatherMap through the shared transport, so that a connection
+            // left from an earlier sync can be reused
+            call = HttpTransport.getInstance().open(url, requestProperties);
+            HttpURLConnection urlConnection = call.getConnection();
+
+            boolean notModified =
+                    urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+            if (revalidating) {
+                SyncStats.recordRevalidation(mContext, locationQuery, notModified);
+                Log.d(LOG_TAG, SyncStats.summarize(mContext));
+            }
+            if (notModified) {
+                // What we have is still current, so there's nothing to parse, store or announce
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+                return new Result(locationQuery, SunshineSyncAdapter.LOCATION_STATUS_OK, null);
+            }
+
+            // Parse the forecast as it comes off the input stream
+            InputStream inputStream = call.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                return new Result(locationQuery, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                        null);
+            }
+            wireStream = new CountingInputStream(inputStream);
+            // Whatever the parser leaves is drained through it too, so every byte is counted
+            call.setInputStream(wireStream);
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                decodedStream = new CountingInputStream(new GZIPInputStream(wireStream));
+            } else {
+                decodedStream = wireStream;
+            }
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(decodedStream, "UTF-8"));
+
+            ForecastCollector collector = new ForecastCollector();
+            collector.etag = urlConnection.getHeaderField("ETag");
+            collector.lastModified = urlConnection.getHeaderField("Last-Modified");
+            int messageCode = readForecast(reader, collector);
+            SyncStats.recordBodySize(mContext, locationQuery, wireStream.getCount());
+
+            // do we have an error?
+            switch (messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    return new Result(locationQuery, SunshineSyncAdapter.LOCATION_STATUS_OK,
+                            collector);
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    return new Result(locationQuery, SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                            null);
+                default:
+                    return new Result(locationQuery,
+                            SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, null);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            return new Result(locationQuery, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, null);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return new Result(locationQuery, SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                    null);
+        } finally {
+            // Closing the call reads anything the parser left, like the gzip trailer, so the
+            // connection can go back to the pool.  That closes the reader's stream too.
+            if (call != null) {
+                call.close();
+                Log.d(LOG_TAG, HttpTransport.getInstance().summarize());
+            }
+            if (wireStream != null) {
+                // A corrupt gzip header fails before there's anything decoded to count
+                long decodedBytes = decodedStream != null ? decodedStream.getCount() : 0;
+                SyncStats.recordTransfer(mContext, locationQuery,
+                        wireStream.getCount(), decodedBytes);
+                Log.d(LOG_TAG, "Forecast download for " + locationQuery + ": "
+                        + wireStream.getCount() + " bytes, " + decodedBytes + " decoded");
+            }
+        }
+    }
+
+    /**
+     * Parse the forecast from the response.  On Honeycomb and up JsonReader lets us pull each
+     * value off the stream as it arrives; older devices don't have it, so there we still read
+     * the whole response into a String and let org.json build its object hierarchy.
+     *
+     * @return the message code returned by the server
+     */
+    private int readForecast(BufferedReader reader, ForecastCollector collector)
+            throws IOException, JSONException {
+        ForecastStreamParser parser = new ForecastStreamParser();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parser.parse(reader, collector);
+        }
+
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+            // But it does make debugging a *lot* easier if you print out the completed
+            // buffer for debugging.
+            buffer.append(line).append('\n');
+        }
+
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new EOFException("Empty forecast response");
+        }
+        return parser.parse(buffer.toString(), collector);
+    }
+
+    /**
+     * Looks up the validators the server sent with the last forecast we stored for a location.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @return {etag, last modified}, either of which may be null, or null if the location
+     * hasn't been synced yet.
+     */
+    private String[] getValidators(String locationSetting) {
+        Cursor locationCursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_ETAG,
+                        WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (locationCursor == null) {
+            return null;
+        }
+        try {
+            if (!locationCursor.moveToFirst()) {
+                return null;
+            }
+            return new String[]{locationCursor.getString(0), locationCursor.getString(1)};
+        } finally {
+            locationCursor.close();
+        }
+    }
+
+    /**
+     * Collects the parsed forecast into the WeatherBatch we hand to the provider.  The
+     * location key isn't known until the city has been parsed and looked up, so it is
+     * filled in when the forecast is stored.
+     */
+    static class ForecastCollector implements ForecastStreamParser.Callback {
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        // Validators sent with the response, to be stored with the location
+        String etag;
+        String lastModified;
+
+        // The days, kept as primitives until they're written.  The location is filled in once
+        // it has been stored.
+        final WeatherBatch weather = new WeatherBatch();
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        final int julianStartDay;
+        final Time dayTime;
+
+        ForecastCollector() {
+            Time now = new Time();
+            now.setToNow();
+
+            // we start at the day returned by local time. Otherwise this is a mess.
+            julianStartDay = Time.getJulianDay(System.currentTimeMillis(), now.gmtoff);
+
+            // now we work exclusively in UTC
+            dayTime = new Time();
+        }
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            cityLatitude = lat;
+            cityLongitude = lon;
+        }
+
+        @Override
+        public void onDay(int index, ForecastStreamParser.DayForecast day) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weather.add(0, dayTime.setJulianDay(julianStartDay + index), day.weatherId,
+                    day.description, day.low, day.high, day.humidity, day.pressure,
+                    day.windSpeed, day.windDirection);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.android.weather.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pulls the values we store out of an OpenWeatherMap daily forecast response.
+ *
+ * The streaming path reads "city", "coord" and each element of "list" straight off the
+ * response stream, so we never hold the raw JSON String or a full JSONObject tree in memory.
+ * Every day is handed to the {@link Callback} through the same {@link DayForecast} record.
+ *
+ * The org.json path is kept for devices older than Honeycomb (which don't have JsonReader)
+ * and so that the two can be compared against each other.
+ */
+public class ForecastStreamParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the parsed values in the order they appear in the response.  The city may
+     * arrive before or after the days, so implementations shouldn't rely on the order.
+     */
+    public interface Callback {
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * @param index position of the day in the "list" array, 0 being today
+         * @param day   the values for that day.  This record is reused for the next day, so
+         *              copy anything that needs to outlive the call.
+         */
+        void onDay(int index, DayForecast day);
+    }
+
+    /**
+     * The values we keep for a single day of the forecast.
+     */
+    public static final class DayForecast {
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double high;
+        public double low;
+        public String description;
+        public int weatherId;
+
+        void clear() {
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            high = 0;
+            low = 0;
+            description = null;
+            weatherId = 0;
+        }
+    }
+
+    // The values a day has to have, as the org.json path requires them too
+    private static final int SAW_PRESSURE = 1;
+    private static final int SAW_HUMIDITY = 1 << 1;
+    private static final int SAW_WINDSPEED = 1 << 2;
+    private static final int SAW_WIND_DIRECTION = 1 << 3;
+    private static final int SAW_MAX = 1 << 4;
+    private static final int SAW_MIN = 1 << 5;
+    private static final int SAW_DESCRIPTION = 1 << 6;
+    private static final int SAW_WEATHER_ID = 1 << 7;
+    private static final int SAW_ALL = (1 << 8) - 1;
+
+    private final DayForecast mDay = new DayForecast();
+    // Which of the values above the day being read has had so far
+    private int mSaw;
+
+    /**
+     * Parses the forecast as it is read from the given Reader.
+     *
+     * @return the "cod" returned by the server, or HTTP_OK if there was none.  If this isn't
+     * HTTP_OK the callback may not have been called at all.
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the stream doesn't hold a forecast we understand
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public int parse(Reader in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        int messageCode = HttpURLConnection.HTTP_OK;
+        boolean sawCity = false;
+        boolean sawList = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // OWM sends this as a String on success and as either type on failure
+                    messageCode = Integer.parseInt(reader.nextString().trim());
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, callback);
+                    sawCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, callback);
+                    sawList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw asJSONException(e);
+        }
+
+        if (messageCode == HttpURLConnection.HTTP_OK && (!sawCity || !sawList)) {
+            throw new JSONException("Forecast is missing " + (sawCity ? OWM_LIST : OWM_CITY));
+        }
+        return messageCode;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readCity(JsonReader reader, Callback callback) throws IOException, JSONException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean sawCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                sawCoord = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !sawCoord) {
+            throw new JSONException("City is missing " + (cityName == null ? OWM_CITY_NAME : OWM_COORD));
+        }
+        callback.onCity(cityName, lat, lon);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readList(JsonReader reader, Callback callback)
+            throws IOException, JSONException {
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            mDay.clear();
+            mSaw = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    mDay.pressure = reader.nextDouble();
+                    mSaw |= SAW_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    mDay.humidity = (int) reader.nextDouble();
+                    mSaw |= SAW_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    mDay.windSpeed = reader.nextDouble();
+                    mSaw |= SAW_WINDSPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    mDay.windDirection = reader.nextDouble();
+                    mSaw |= SAW_WIND_DIRECTION;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    readTemperature(reader);
+                } else if (OWM_WEATHER.equals(name)) {
+                    readWeather(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (mSaw != SAW_ALL) {
+                // Rather than store zeros as if they were the weather
+                throw new JSONException("Day " + index + " is missing " + getMissingValue(mSaw));
+            }
+            callback.onDay(index++, mDay);
+        }
+        reader.endArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readTemperature(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                mDay.high = reader.nextDouble();
+                mSaw |= SAW_MAX;
+            } else if (OWM_MIN.equals(name)) {
+                mDay.low = reader.nextDouble();
+                mSaw |= SAW_MIN;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readWeather(JsonReader reader) throws IOException {
+        // Description is in a child array called "weather", which is 1 element long.
+        // That element also contains a weather code.
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    mDay.description = reader.nextString();
+                    mSaw |= SAW_DESCRIPTION;
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    mDay.weatherId = (int) reader.nextDouble();
+                    mSaw |= SAW_WEATHER_ID;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * @return the name of the first value a day is missing, given the ones it had
+     */
+    private static String getMissingValue(int saw) {
+        if ((saw & SAW_PRESSURE) == 0) return OWM_PRESSURE;
+        if ((saw & SAW_HUMIDITY) == 0) return OWM_HUMIDITY;
+        if ((saw & SAW_WINDSPEED) == 0) return OWM_WINDSPEED;
+        if ((saw & SAW_WIND_DIRECTION) == 0) return OWM_WIND_DIRECTION;
+        if ((saw & SAW_MAX) == 0) return OWM_TEMPERATURE + "." + OWM_MAX;
+        if ((saw & SAW_MIN) == 0) return OWM_TEMPERATURE + "." + OWM_MIN;
+        if ((saw & SAW_DESCRIPTION) == 0) return OWM_WEATHER + "." + OWM_DESCRIPTION;
+        return OWM_WEATHER + "." + OWM_WEATHER_ID;
+    }
+
+    /**
+     * Parses a forecast that has already been read into a String, by building the whole
+     * org.json object hierarchy first.  This is what we did before JsonReader was available.
+     *
+     * @return the "cod" returned by the server, or HTTP_OK if there was none.
+     */
+    public int parse(String forecastJsonStr, Callback callback) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return errorCode;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        String cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        callback.onCity(cityName,
+                cityCoord.getDouble(OWM_LATITUDE),
+                cityCoord.getDouble(OWM_LONGITUDE));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            mDay.clear();
+            mDay.pressure = dayForecast.getDouble(OWM_PRESSURE);
+            mDay.humidity = dayForecast.getInt(OWM_HUMIDITY);
+            mDay.windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+            mDay.windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            mDay.description = weatherObject.getString(OWM_DESCRIPTION);
+            mDay.weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            mDay.high = temperatureObject.getDouble(OWM_MAX);
+            mDay.low = temperatureObject.getDouble(OWM_MIN);
+
+            callback.onDay(i, mDay);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private static JSONException asJSONException(Exception e) {
+        JSONException jsonException = new JSONException(e.getMessage());
+        jsonException.initCause(e);
+        return jsonException;
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.android.weather.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one place the app opens HTTP connections, for forecast syncs and for weather art.
+ *
+ * HttpURLConnection already keeps a pool of idle keep-alive connections, but a connection
+ * only goes back into it if its response body was read to the end and closed without calling
+ * disconnect().  {@link Call#close()} does exactly that, so a warm sync or art fetch can skip
+ * the TCP handshake.  Each host also gets a limit on how many requests can be in flight at
+ * once, shared by everything in the process.
+ */
+public class HttpTransport {
+
+    private static final String LOG_TAG = HttpTransport.class.getSimpleName();
+
+    // Requests in flight to a single host
+    static final int MAX_REQUESTS_PER_HOST = 4;
+    // Idle connections the platform keeps per host, and for how long
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+    // Left over bytes we'll read to save a connection; anything bigger isn't worth it
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static HttpTransport sInstance;
+
+    public static synchronized HttpTransport getInstance() {
+        if (sInstance == null) {
+            sInstance = new HttpTransport();
+        }
+        return sInstance;
+    }
+
+    /**
+     * A request holding one of its host's permits.  The response body has to be closed with
+     * {@link #close()}, which releases the permit and returns the connection to the pool.
+     */
+    public class Call {
+        private final String mHost;
+        private final HttpURLConnection mConnection;
+        private InputStream mInputStream;
+        private boolean mClosed;
+
+        private Call(String host, HttpURLConnection connection) {
+            mHost = host;
+            mConnection = connection;
+        }
+
+        public HttpURLConnection getConnection() {
+            return mConnection;
+        }
+
+        /**
+         * @return the response body, or null if there isn't one
+         */
+        public InputStream getInputStream() throws IOException {
+            if (mInputStream == null) {
+                mInputStream = mConnection.getInputStream();
+            }
+            return mInputStream;
+        }
+
+        /**
+         * Sets the stream the response body is read through, which has to wrap the one from
+         * {@link #getInputStream()}, such as one that counts its bytes.  Whatever is left of
+         * the body when the call is closed is drained through it, so it sees all of it.
+         */
+        public void setInputStream(InputStream in) {
+            mInputStream = in;
+        }
+
+        public synchronized void close() {
+            if (mClosed) return;
+            mClosed = true;
+
+            boolean reusable = false;
+            try {
+                InputStream in = mInputStream;
+                if (in == null) {
+                    // Nobody read the response, but it still has to be consumed
+                    in = mConnection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getErrorStream() : mConnection.getInputStream();
+                }
+                if (in != null) {
+                    reusable = drain(in);
+                    in.close();
+                } else {
+                    // No body to read, so the connection is ready for the next request
+                    reusable = true;
+                }
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Discarding connection to " + mHost, e);
+            } finally {
+                if (reusable) {
+                    connectionReleased(mHost);
+                } else {
+                    // Nothing else can use this connection, so let it go now
+                    mConnection.disconnect();
+                }
+                getHostPermits(mHost).release();
+            }
+        }
+    }
+
+    // Process lifetime metrics, split by whether a pooled connection was expected
+    private final AtomicLong mNewConnects = new AtomicLong();
+    private final AtomicLong mNewConnectNanos = new AtomicLong();
+    private final AtomicLong mReusedConnects = new AtomicLong();
+    private final AtomicLong mReusedConnectNanos = new AtomicLong();
+
+    private final Map<String, Semaphore> mHostPermits = new HashMap<String, Semaphore>();
+    // When each host last had a connection returned to the pool, and how many are idle
+    private final Map<String, long[]> mIdleConnections = new HashMap<String, long[]>();
+
+    /**
+     * The pool is configured with system properties, which apply to every HttpURLConnection in
+     * the process, not just ours.  They're set once, before this opens its first connection,
+     * and only if nothing else in the process has set them already.  Keep-alive and 5 idle
+     * connections per host are the platform defaults on most releases anyway, so this only
+     * pins them down on the ones where they aren't.
+     */
+    private HttpTransport() {
+        setDefaultProperty("http.keepAlive", "true");
+        setDefaultProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+    }
+
+    private static void setDefaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Connects to the given URL, waiting for a free permit for its host first.
+     *
+     * @param requestProperties extra request headers, or null
+     * @return the connected request, which must be closed
+     * @throws InterruptedIOException if the thread is interrupted while waiting for a permit
+     */
+    public Call open(URL url, Map<String, String> requestProperties) throws IOException {
+        String host = url.getHost();
+        Semaphore permits = getHostPermits(host);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to connect to " + host);
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (requestProperties != null) {
+                for (Map.Entry<String, String> property : requestProperties.entrySet()) {
+                    connection.setRequestProperty(property.getKey(), property.getValue());
+                }
+            }
+
+            boolean expectReuse = takeIdleConnection(host);
+            long start = System.nanoTime();
+            connection.connect();
+            recordConnect(expectReuse, System.nanoTime() - start);
+            return new Call(host, connection);
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    private synchronized Semaphore getHostPermits(String host) {
+        Semaphore permits = mHostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(MAX_REQUESTS_PER_HOST, true);
+            mHostPermits.put(host, permits);
+        }
+        return permits;
+    }
+
+    private synchronized void connectionReleased(String host) {
+        long[] idle = mIdleConnections.get(host);
+        if (idle == null) {
+            idle = new long[2];
+            mIdleConnections.put(host, idle);
+        }
+        idle[0] = SystemClock.elapsedRealtime();
+        idle[1] = Math.min(idle[1] + 1, MAX_IDLE_CONNECTIONS);
+    }
+
+    /**
+     * HttpURLConnection doesn't say whether it reused a connection, so this keeps track of
+     * what should be sitting in its pool.  It's only an estimate: the pool can close an idle
+     * connection early, or hold one this doesn't know about.
+     *
+     * @return true if there should be an idle connection to the host we can reuse
+     */
+    private synchronized boolean takeIdleConnection(String host) {
+        long[] idle = mIdleConnections.get(host);
+        if (idle == null || idle[1] == 0) {
+            return false;
+        }
+        if (SystemClock.elapsedRealtime() - idle[0] > KEEP_ALIVE_MILLIS) {
+            // The pool will have closed them by now
+            idle[1] = 0;
+            return false;
+        }
+        idle[1]--;
+        return true;
+    }
+
+    private void recordConnect(boolean expectReuse, long nanos) {
+        if (expectReuse) {
+            mReusedConnects.incrementAndGet();
+            mReusedConnectNanos.addAndGet(nanos);
+        } else {
+            mNewConnects.incrementAndGet();
+            mNewConnectNanos.addAndGet(nanos);
+        }
+    }
+
+    /**
+     * @return how many connections were made to a host with an idle connection that should
+     * have been in the pool.  This is what {@link #takeIdleConnection} expected, not a count
+     * of connections that really were reused.
+     */
+    public long getExpectedReuseCount() {
+        return mReusedConnects.get();
+    }
+
+    /**
+     * @return how many connections were made with no idle connection expected in the pool
+     */
+    public long getExpectedNewCount() {
+        return mNewConnects.get();
+    }
+
+    /**
+     * @return the average time spent in connect() by the connections that were or weren't
+     * expected to reuse one from the pool, in nanoseconds.  It includes any TCP and TLS
+     * handshake, which a reused connection skips, so these are what show whether reuse
+     * happened: if the expected reuses were really new connections, the two come out alike.
+     */
+    public long getAverageConnectNanos(boolean expectedReuse) {
+        long count = expectedReuse ? mReusedConnects.get() : mNewConnects.get();
+        long nanos = expectedReuse ? mReusedConnectNanos.get() : mNewConnectNanos.get();
+        return count == 0 ? 0 : nanos / count;
+    }
+
+    /**
+     * @return a one line summary of the metrics, for the log
+     */
+    public String summarize() {
+        return "connections: " + getExpectedReuseCount() + " expected to reuse (avg connect "
+                + getAverageConnectNanos(true) / 1000 + " us), " + getExpectedNewCount()
+                + " expected new (avg connect " + getAverageConnectNanos(false) / 1000
+                + " us)";
+    }
+
+    /**
+     * Reads whatever is left of a response so the connection can be reused.
+     *
+     * @return true if the whole body was read
+     */
+    private static boolean drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        int drained = 0;
+        int read;
+        while (drained <= MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1) {
+            drained += read;
+        }
+        return drained <= MAX_DRAIN_BYTES;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.weather.app.sync;
+
+import android.content.Context;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GenericLoaderFactory;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+import com.bumptech.glide.module.GlideModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Has Glide load weather art over {@link HttpTransport}, so the notification icon, the widgets
+ * and the UI share connections and per-host limits with the sync.  Glide's own loader calls
+ * disconnect() after every image.  Registered in the manifest.
+ */
+public class HttpTransportGlideModule implements GlideModule {
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        glide.register(GlideUrl.class, InputStream.class, new UrlLoader.Factory());
+    }
+
+    static class UrlLoader implements StreamModelLoader<GlideUrl> {
+
+        static class Factory implements ModelLoaderFactory<GlideUrl, InputStream> {
+            @Override
+            public ModelLoader<GlideUrl, InputStream> build(Context context,
+                                                            GenericLoaderFactory factories) {
+                return new UrlLoader();
+            }
+
+            @Override
+            public void teardown() {
+            }
+        }
+
+        @Override
+        public DataFetcher<InputStream> getResourceFetcher(GlideUrl model, int width, int height) {
+            return new UrlFetcher(model);
+        }
+    }
+
+    static class UrlFetcher implements DataFetcher<InputStream> {
+        private final GlideUrl mUrl;
+        private HttpTransport.Call mCall;
+        private volatile boolean mCancelled;
+
+        UrlFetcher(GlideUrl url) {
+            mUrl = url;
+        }
+
+        @Override
+        public InputStream loadData(Priority priority) throws Exception {
+            HttpTransport.Call call = HttpTransport.getInstance()
+                    .open(new URL(mUrl.toString()), null);
+            synchronized (this) {
+                mCall = call;
+            }
+            if (mCancelled) {
+                return null;
+            }
+
+            int responseCode = call.getConnection().getResponseCode();
+            if (responseCode / 100 != 2) {
+                throw new IOException("Request for " + mUrl + " failed: " + responseCode + " "
+                        + call.getConnection().getResponseMessage());
+            }
+            return call.getInputStream();
+        }
+
+        @Override
+        public synchronized void cleanup() {
+            if (mCall != null) {
+                mCall.close();
+                mCall = null;
+            }
+        }
+
+        @Override
+        public String getId() {
+            return mUrl.toString();
+        }
+
+        @Override
+        public void cancel() {
+            // Glide calls this from another thread.  A request that's already connected
+            // finishes, the same as with Glide's own loader.
+            mCancelled = true;
+        }
+    }
+}
@@ -7,11 +7,13 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -19,40 +21,35 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.weather.app.BuildConfig;
 import com.example.android.weather.app.MainActivity;
 import com.example.android.weather.app.R;
 import com.example.android.weather.app.Utility;
+import com.example.android.weather.app.data.LocationIdCache;
+import com.example.android.weather.app.data.TodayWeather;
+import com.example.android.weather.app.data.WeatherBatch;
 import com.example.android.weather.app.data.WeatherContract;
 import com.example.android.weather.app.muzei.WeatherMuzeiSource;
 
-
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
@@ -66,24 +63,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // How long each consumer of new weather gets before it's interrupted
+    private static final long BROADCAST_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 30 * 1000;
+    private static final long WEARABLE_TIMEOUT_MILLIS = 30 * 1000;
 
-    // Notifications config:
-    // ------------------------------------------------------------------------------
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // These indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
+    // Most forecasts we'll download at the same time.  Any other locations wait for a free
+    // thread, and the threads go away when the sync is idle.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+    private static final ThreadPoolExecutor sFetchExecutor = new ThreadPoolExecutor(
+            MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
 
+    static {
+        sFetchExecutor.allowCoreThreadTimeOut(true);
+    }
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -103,270 +97,244 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        Context context = getContext();
+        String preferredLocation = Utility.getPreferredLocation(context);
+        List<String> locations = Utility.getSyncLocations(context);
 
+        // Let any sync requests that this covers attach to it
+        SyncCoordinator.onSyncStarted(context, locations);
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            syncLocations(preferredLocation, locations, syncResult);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            SyncCoordinator.onSyncFinished();
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Fetches the forecast for every location at once and stores them.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    private void syncLocations(String preferredLocation, List<String> locations,
+                               SyncResult syncResult) {
+        Context context = getContext();
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        // Don't spend a radio wake-up on a server that has been failing
+        if (!SyncBackoff.tryAcquire(context)) {
+            long nextAttempt = SyncBackoff.getNextAttemptMillis(context);
+            Log.d(LOG_TAG, "Skipping sync, backing off until " + nextAttempt);
+            syncResult.delayUntil = nextAttempt / 1000;
+            return;
+        }
 
-        final String OWM_MESSAGE_CODE = "cod";
+        // Fetch every location at once, so the sync takes about as long as the slowest fetch
+        long startTime = SystemClock.elapsedRealtime();
+        List<Future<ForecastFetcher.Result>> fetches =
+                new ArrayList<Future<ForecastFetcher.Result>>(locations.size());
+        for (String location : locations) {
+            fetches.add(sFetchExecutor.submit(new ForecastFetcher(context, location)));
+        }
 
+        List<ForecastFetcher.Result> results =
+                new ArrayList<ForecastFetcher.Result>(locations.size());
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            for (Future<ForecastFetcher.Result> fetch : fetches) {
+                try {
+                    results.add(fetch.get());
+                } catch (ExecutionException e) {
+                    // ForecastFetcher reports its own failures, so this is a bug
+                    Log.e(LOG_TAG, "Error fetching forecast", e.getCause());
                 }
             }
+        } catch (InterruptedException e) {
+            // The sync was cancelled.  Don't leave the remaining fetches running
+            for (Future<ForecastFetcher.Result> fetch : fetches) {
+                fetch.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            return;
+        }
+        Log.d(LOG_TAG, "Fetched " + locations.size() + " locations in "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms");
+
+        // The server is only failing if none of the locations got an answer we could use
+        if (!results.isEmpty()) {
+            boolean reachedServer = false;
+            for (ForecastFetcher.Result result : results) {
+                if (result.status != LOCATION_STATUS_SERVER_DOWN
+                        && result.status != LOCATION_STATUS_SERVER_INVALID) {
+                    reachedServer = true;
+                    break;
+                }
+            }
+            long nextAttempt = SyncBackoff.recordResult(context, reachedServer);
+            if (nextAttempt != 0) {
+                Log.d(LOG_TAG, "Sync failed " + SyncBackoff.getConsecutiveFailures(context)
+                        + " times in a row, backing off until " + nextAttempt);
+                syncResult.delayUntil = nextAttempt / 1000;
+            }
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        storeWeatherData(preferredLocation, results);
+    }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+    /**
+     * Take the fetched forecasts and store them in the database together, then let everything
+     * that shows the weather know about it.
+     */
+    private void storeWeatherData(String preferredLocation, List<ForecastFetcher.Result> results) {
+        Context context = getContext();
+        @LocationStatus int preferredStatus = LOCATION_STATUS_UNKNOWN;
+        boolean anyCurrent = false;
+
+        List<ForecastFetcher.Result> stored = new ArrayList<ForecastFetcher.Result>();
+        ForecastFetcher.ForecastCollector latest = null;
+        for (ForecastFetcher.Result result : results) {
+            if (result.locationSetting.equals(preferredLocation)) {
+                preferredStatus = result.status;
+            }
+            if (result.status == LOCATION_STATUS_OK) {
+                anyCurrent = true;
+            }
+            // A null collector means either nothing changed or there's nothing we can use
+            if (result.collector != null) {
+                stored.add(result);
+                latest = result.collector;
+            }
+        }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        // Everything goes to the provider as one batch, so it is stored in one transaction and
+        // the loaders only reload once.  New locations are inserted first, and the operations
+        // after them refer back to their results for the row ID.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        long[] locationIds = new long[stored.size()];
+        int[] locationOperations = new int[stored.size()];
+        for (int i = 0; i < stored.size(); i++) {
+            ForecastFetcher.Result result = stored.get(i);
+            locationIds[i] = findLocation(result.locationSetting);
+            locationOperations[i] = -1;
+            if (locationIds[i] == -1) {
+                locationOperations[i] = operations.size();
+                operations.add(newLocationInsert(result.locationSetting, result.collector.cityName,
+                        result.collector.cityLatitude, result.collector.cityLongitude));
+            }
+        }
 
-                ContentValues weatherValues = new ContentValues();
+        // Days that haven't changed since the last sync are left alone, and the results of
+        // these operations count the ones that did.  Each location's days go as one batch
+        // insert, so the provider writes them with the same compiled statements.
+        int firstCountedOperation = operations.size();
+        int fetchedCount = 0;
+        for (int i = 0; i < stored.size(); i++) {
+            WeatherBatch weather = stored.get(i).collector.weather;
+            ContentProviderOperation.Builder builder = weather.newInsert(true);
+            if (locationOperations[i] == -1) {
+                builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationIds[i]);
+            } else {
+                builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locationOperations[i]);
+            }
+            operations.add(builder.build());
+            fetchedCount += weather.size();
+        }
+        // The days moved into the history below aren't changes to the weather anyone is shown
+        int endCountedOperations = operations.size();
+
+        if (latest != null) {
+            // move the days that have passed into the history, and forget the oldest of it.
+            // Every collector counts its days from the device's today rather than the
+            // location's, so any of them gives the same cutoff for all the locations.  The
+            // latest is used in case the fetches went either side of midnight.
+            operations.add(ContentProviderOperation.newDelete(
+                    WeatherContract.WeatherEntry.buildWeatherArchiveUri(
+                            Utility.getHistoryMonths(context)))
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(
+                                    latest.dayTime.setJulianDay(latest.julianStartDay - 1))})
+                    .build());
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        // The validators are committed along with the data they describe
+        for (int i = 0; i < stored.size(); i++) {
+            ForecastFetcher.ForecastCollector collector = stored.get(i).collector;
+            ContentProviderOperation.Builder builder =
+                    newValidatorsUpdate(collector.etag, collector.lastModified);
+            if (locationOperations[i] == -1) {
+                builder.withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationIds[i])});
+            } else {
+                builder.withSelection(WeatherContract.LocationEntry._ID + " = ?", new String[1])
+                        .withSelectionBackReference(0, locationOperations[i]);
+            }
+            operations.add(builder.build());
+        }
 
-                cVVector.add(weatherValues);
+        int changedCount = 0;
+        if (!operations.isEmpty()) {
+            try {
+                ContentProviderResult[] batchResults = context.getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations);
+                for (int i = firstCountedOperation; i < endCountedOperations; i++) {
+                    ContentProviderResult result = batchResults[i];
+                    changedCount += result.uri != null
+                            ? WeatherContract.WeatherEntry.getCountFromUri(result.uri)
+                            : result.count;
+                }
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, "Error storing weather: " + e.getMessage(), e);
+                stored.clear();
             }
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+        // Only tell everything showing the weather if there's something new to show.  The data
+        // is committed, so the sync doesn't need to wait for them.
+        if (changedCount > 0) {
+            fanOut();
+        }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+        Log.d(LOG_TAG, "Sync Complete. " + fetchedCount + " Fetched, " + changedCount
+                + " Changed for " + stored.size() + " of " + results.size() + " locations");
+        if (preferredStatus != LOCATION_STATUS_UNKNOWN) {
+            setLocationStatus(context, preferredStatus);
+        }
 
+        // Sync more or less often depending on how much changed, if we heard anything at all
+        if (anyCurrent) {
+            SyncScheduler.onSyncComplete(context, fetchedCount, changedCount);
+        }
+    }
+
+    /**
+     * Hands the new weather to the widgets, Muzei, the notification and the watch, each on its
+     * own thread with its own timeout.
+     */
+    private void fanOut() {
+        final Context context = getContext();
+        List<SyncFanOut.Consumer> consumers = new ArrayList<SyncFanOut.Consumer>();
+        consumers.add(new SyncFanOut.Consumer("widgets", BROADCAST_TIMEOUT_MILLIS) {
+            @Override
+            void consume() {
                 updateWidgets();
+            }
+        });
+        consumers.add(new SyncFanOut.Consumer("muzei", BROADCAST_TIMEOUT_MILLIS) {
+            @Override
+            void consume() {
                 updateMuzei();
+            }
+        });
+        // This one waits for the large icon to download
+        consumers.add(new SyncFanOut.Consumer("notification", NOTIFICATION_TIMEOUT_MILLIS) {
+            @Override
+            void consume() {
                 notifyWeather();
-                WatchFaceUpdater watchFaceUpdater = new WatchFaceUpdater(getContext());
-                watchFaceUpdater.sendDataToWearable();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        }
+        });
+        consumers.add(new SyncFanOut.Consumer("wearable", WEARABLE_TIMEOUT_MILLIS) {
+            @Override
+            void consume() {
+                new WatchFaceUpdater(context).sendDataToWearable();
+            }
+        });
+        SyncFanOut.dispatch(context, consumers);
     }
 
     private void updateWidgets() {
@@ -404,16 +372,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                // Today's weather is all we need, which the provider keeps in memory
+                Bundle today = TodayWeather.query(context.getContentResolver(), locationQuery);
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.getInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+                    double high = today.getDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+                    double low = today.getDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+                    String desc = today.getString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -489,24 +455,24 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to find a location in the weather database.
      *
      * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of the location, or -1 if it hasn't been added yet.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    long findLocation(String locationSetting) {
+        // We've usually already seen this location, so skip the query if we can
+        Long cachedId = LocationIdCache.get(locationSetting);
+        if (cachedId != null) {
+            return cachedId;
+        }
 
-        // First, check if the location with this city name exists in the db
+        // Check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
                 WeatherContract.LocationEntry.CONTENT_URI,
                 new String[]{WeatherContract.LocationEntry._ID},
@@ -514,36 +480,62 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 new String[]{locationSetting},
                 null);
 
+        long locationId = -1;
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+            LocationIdCache.put(locationSetting, locationId);
         }
-
         locationCursor.close();
-        // Wait, that worked?  Yes!
         return locationId;
     }
 
+    /**
+     * Helper method to build the insertion of a new location in the weather database.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @return the operation, whose result holds the URI of the added location.
+     */
+    private static ContentProviderOperation newLocationInsert(String locationSetting,
+                                                              String cityName,
+                                                              double lat, double lon) {
+        // Add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        return ContentProviderOperation.newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build();
+    }
+
+    /**
+     * Builds the update that stores the validators from the latest forecast with its location,
+     * clearing any that the server didn't send this time.  The caller picks the location.
+     */
+    private static ContentProviderOperation.Builder newValidatorsUpdate(String etag,
+                                                                        String lastModified) {
+        ContentValues validatorValues = new ContentValues();
+        if (etag != null) {
+            validatorValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, etag);
+        } else {
+            validatorValues.putNull(WeatherContract.LocationEntry.COLUMN_ETAG);
+        }
+        if (lastModified != null) {
+            validatorValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, lastModified);
+        } else {
+            validatorValues.putNull(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED);
+        }
+        return ContentProviderOperation.newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(validatorValues);
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -564,10 +556,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Requests made within a second
+     * of each other, or while a sync that covers them is running, are merged into one sync.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        SyncCoordinator.requestSync(context);
+    }
+
+    /**
+     * Asks the SyncManager for an expedited sync straight away.  Everything else should go
+     * through {@link #syncImmediately} so that requests can be merged.
+     */
+    static void requestExpeditedSync(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -0,0 +1,156 @@
+package com.example.android.weather.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Random;
+
+/**
+ * Keeps syncs away from OpenWeatherMap while it is failing.
+ *
+ * Each failed sync backs off exponentially, with jitter so that devices don't all come back
+ * at once.  After {@link #FAILURE_THRESHOLD} failures in a row the circuit opens and every sync
+ * is skipped for a while; then a single sync is let through as a probe.  If the probe works
+ * the circuit closes again, otherwise it stays open for twice as long.
+ *
+ * The state is kept in SharedPreferences, since the sync process is often killed between syncs.
+ */
+public class SyncBackoff {
+
+    static final String PREFS_NAME = "sync_backoff";
+
+    private static final String KEY_STATE = "state";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_NEXT_ATTEMPT = "next_attempt";
+    private static final String KEY_OPEN_MILLIS = "open_millis";
+    private static final String KEY_PROBE_STARTED = "probe_started";
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN})
+    public @interface CircuitState {}
+
+    // Syncs go ahead, unless they're backing off from a recent failure
+    public static final int STATE_CLOSED = 0;
+    // Syncs are skipped until the next attempt time
+    public static final int STATE_OPEN = 1;
+    // A probe sync is running, and the others are skipped until we know how it went
+    public static final int STATE_HALF_OPEN = 2;
+
+    static final int FAILURE_THRESHOLD = 4;
+    static final long INITIAL_BACKOFF_MILLIS = 60 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+    static final long INITIAL_OPEN_MILLIS = 2 * 60 * 60 * 1000;
+    static final long MAX_OPEN_MILLIS = 12 * 60 * 60 * 1000;
+    // A probe that never reported back has been killed along with its process
+    static final long PROBE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private static final Random sRandom = new Random();
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Decides whether a sync may talk to the server now.  If the circuit is open and its time
+     * is up, this sync becomes the probe.
+     *
+     * @return true if the sync should go ahead
+     */
+    public static boolean tryAcquire(Context context) {
+        return tryAcquire(context, System.currentTimeMillis());
+    }
+
+    static synchronized boolean tryAcquire(Context context, long now) {
+        SharedPreferences prefs = getPrefs(context);
+        long nextAttempt = prefs.getLong(KEY_NEXT_ATTEMPT, 0);
+        switch (getState(context)) {
+            case STATE_HALF_OPEN:
+                if (now - prefs.getLong(KEY_PROBE_STARTED, 0) < PROBE_TIMEOUT_MILLIS) {
+                    return false;
+                }
+                // The probe is gone, so let this sync try instead
+                break;
+            case STATE_OPEN:
+                if (now < nextAttempt) {
+                    return false;
+                }
+                break;
+            default:
+                return now >= nextAttempt;
+        }
+        prefs.edit()
+                .putInt(KEY_STATE, STATE_HALF_OPEN)
+                .putLong(KEY_PROBE_STARTED, now)
+                .commit();
+        return true;
+    }
+
+    /**
+     * Records how a sync that was allowed to go ahead went.
+     *
+     * @param reachedServer true if the server answered with something we could use, even if
+     *                      that was "location not found"
+     * @return when the next sync may go ahead, in milliseconds since the epoch, or 0 if it can
+     * go ahead any time
+     */
+    public static long recordResult(Context context, boolean reachedServer) {
+        return recordResult(context, reachedServer, System.currentTimeMillis());
+    }
+
+    static synchronized long recordResult(Context context, boolean reachedServer, long now) {
+        SharedPreferences prefs = getPrefs(context);
+        if (reachedServer) {
+            prefs.edit().clear().commit();
+            return 0;
+        }
+
+        int failures = prefs.getInt(KEY_FAILURES, 0) + 1;
+        SharedPreferences.Editor editor = prefs.edit().putInt(KEY_FAILURES, failures);
+        long delay;
+        if (getState(context) == STATE_HALF_OPEN) {
+            // The probe failed, so give the server longer to recover this time
+            delay = Math.min(prefs.getLong(KEY_OPEN_MILLIS, INITIAL_OPEN_MILLIS) * 2,
+                    MAX_OPEN_MILLIS);
+            editor.putInt(KEY_STATE, STATE_OPEN).putLong(KEY_OPEN_MILLIS, delay);
+        } else if (failures >= FAILURE_THRESHOLD) {
+            delay = INITIAL_OPEN_MILLIS;
+            editor.putInt(KEY_STATE, STATE_OPEN).putLong(KEY_OPEN_MILLIS, delay);
+        } else {
+            // 1, 2, 4... minutes
+            delay = Math.min(INITIAL_BACKOFF_MILLIS << (failures - 1), MAX_BACKOFF_MILLIS);
+            editor.putInt(KEY_STATE, STATE_CLOSED);
+        }
+
+        long nextAttempt = now + jitter(delay);
+        editor.putLong(KEY_NEXT_ATTEMPT, nextAttempt).commit();
+        return nextAttempt;
+    }
+
+    /**
+     * @return somewhere between half the delay and the whole of it
+     */
+    private static long jitter(long delay) {
+        synchronized (sRandom) {
+            return delay / 2 + (long) (sRandom.nextDouble() * (delay / 2));
+        }
+    }
+
+    @SuppressWarnings("ResourceType")
+    public static @CircuitState int getState(Context context) {
+        return getPrefs(context).getInt(KEY_STATE, STATE_CLOSED);
+    }
+
+    /**
+     * @return the earliest time the next sync may go ahead, in milliseconds since the epoch
+     */
+    public static long getNextAttemptMillis(Context context) {
+        return getPrefs(context).getLong(KEY_NEXT_ATTEMPT, 0);
+    }
+
+    public static int getConsecutiveFailures(Context context) {
+        return getPrefs(context).getInt(KEY_FAILURES, 0);
+    }
+}
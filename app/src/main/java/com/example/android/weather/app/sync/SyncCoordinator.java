@@ -0,0 +1,94 @@
+package com.example.android.weather.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.weather.app.Utility;
+
+import java.util.List;
+
+/**
+ * Merges requests for an immediate sync, so that a burst of them only costs one sync.
+ *
+ * A request waits {@link #COALESCE_WINDOW_MILLIS} before it is passed on to the SyncManager,
+ * and any others made in the meantime ride along with it.  A request made while a sync is
+ * running is dropped if that sync is already fetching every location the request wants,
+ * and a waiting request is dropped if a periodic sync starts first.
+ *
+ * The sync adapter runs in the app's process, so this only needs to coordinate in memory.
+ */
+public class SyncCoordinator {
+
+    private static final String LOG_TAG = SyncCoordinator.class.getSimpleName();
+
+    static final long COALESCE_WINDOW_MILLIS = 1000;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final Object sLock = new Object();
+
+    // The request waiting for its window to end, if any
+    private static Runnable sPendingRequest;
+    // The locations the running sync is fetching, or null if there's no sync running
+    private static List<String> sInFlightLocations;
+
+    /**
+     * Asks for a sync soon, unless one that covers it is already on the way.
+     */
+    public static void requestSync(Context context) {
+        final Context appContext = context.getApplicationContext();
+        List<String> locations = Utility.getSyncLocations(appContext);
+        synchronized (sLock) {
+            if (sInFlightLocations != null && sInFlightLocations.containsAll(locations)) {
+                Log.d(LOG_TAG, "Sync request attached to the running sync");
+                SyncStats.recordSyncRequest(appContext, false);
+                return;
+            }
+            if (sPendingRequest != null) {
+                Log.d(LOG_TAG, "Sync request merged with a waiting one");
+                SyncStats.recordSyncRequest(appContext, false);
+                return;
+            }
+
+            sPendingRequest = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (sLock) {
+                        if (sPendingRequest != this) {
+                            // A sync started in the meantime and took care of it
+                            return;
+                        }
+                        sPendingRequest = null;
+                    }
+                    SyncStats.recordSyncRequest(appContext, true);
+                    Log.d(LOG_TAG, SyncStats.summarizeSyncRequests(appContext));
+                    SunshineSyncAdapter.requestExpeditedSync(appContext);
+                }
+            };
+            sHandler.postDelayed(sPendingRequest, COALESCE_WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * Called by the sync adapter once it knows which locations it is about to fetch.
+     */
+    static void onSyncStarted(Context context, List<String> locations) {
+        synchronized (sLock) {
+            sInFlightLocations = locations;
+            if (sPendingRequest != null) {
+                // This sync read the settings after the request was made, so it covers it
+                sHandler.removeCallbacks(sPendingRequest);
+                sPendingRequest = null;
+                Log.d(LOG_TAG, "Waiting sync request attached to the starting sync");
+                SyncStats.recordSyncRequest(context, false);
+            }
+        }
+    }
+
+    static void onSyncFinished() {
+        synchronized (sLock) {
+            sInFlightLocations = null;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.weather.app.sync;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tells everything that shows the weather about new data, once it has been committed.
+ *
+ * The consumers run on their own threads so the sync can finish without waiting for them.
+ * Each one has its own timeout, after which it is interrupted, and a consumer that fails or
+ * hangs doesn't hold up the others.  How long each one took is recorded in {@link SyncStats}.
+ *
+ * The sync framework releases its wakelock as soon as the sync returns, so the fan-out holds a
+ * partial wakelock of its own until every consumer has finished or timed out.  Without it, a
+ * dozing device could suspend partway through and leave the widgets and notification stale.
+ */
+class SyncFanOut {
+
+    private static final String LOG_TAG = SyncFanOut.class.getSimpleName();
+
+    private static final int MAX_CONSUMER_THREADS = 4;
+    private static final long IDLE_THREAD_MILLIS = 30 * 1000;
+    // Added to the longest consumer timeout, in case the coordinator itself is slow to finish
+    private static final long WAKE_LOCK_MARGIN_MILLIS = 5 * 1000;
+    private static final String WAKE_LOCK_TAG = "Sunshine:" + LOG_TAG;
+
+    private static final ThreadPoolExecutor sConsumerExecutor = newExecutor(MAX_CONSUMER_THREADS);
+    // Waits on the consumers so that the sync thread doesn't have to
+    private static final ThreadPoolExecutor sCoordinator = newExecutor(1);
+
+    private static ThreadPoolExecutor newExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                IDLE_THREAD_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Something to be told about newly synced weather.
+     */
+    static abstract class Consumer {
+        final String name;
+        final long timeoutMillis;
+
+        /**
+         * @param name          identifies the consumer in the log and in {@link SyncStats}
+         * @param timeoutMillis how long the consumer may take before it is interrupted
+         */
+        Consumer(String name, long timeoutMillis) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        abstract void consume() throws Exception;
+    }
+
+    /**
+     * Runs a consumer and records how it went.  If the consumer times out, the coordinator
+     * records that instead, and whatever the interrupted consumer does afterwards is ignored.
+     */
+    private static class ConsumerTask implements Callable<Void> {
+        final Context context;
+        final Consumer consumer;
+        final long startTime = SystemClock.elapsedRealtime();
+        private final AtomicBoolean mRecorded = new AtomicBoolean();
+
+        ConsumerTask(Context context, Consumer consumer) {
+            this.context = context;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public Void call() {
+            boolean succeeded = false;
+            try {
+                consumer.consume();
+                succeeded = true;
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Error updating " + consumer.name, e);
+            } finally {
+                record(succeeded ? SyncStats.CONSUMER_OK : SyncStats.CONSUMER_FAILED);
+            }
+            return null;
+        }
+
+        void record(@SyncStats.ConsumerOutcome int outcome) {
+            if (mRecorded.compareAndSet(false, true)) {
+                long latency = SystemClock.elapsedRealtime() - startTime;
+                SyncStats.recordConsumer(context, consumer.name, outcome, latency);
+            }
+        }
+    }
+
+    /**
+     * Starts every consumer and returns without waiting for any of them.  The device is kept
+     * awake until they have all finished or timed out.
+     */
+    static void dispatch(Context context, List<Consumer> consumers) {
+        final Context appContext = context.getApplicationContext();
+        final PowerManager.WakeLock wakeLock = acquireWakeLock(appContext, consumers);
+        final List<ConsumerTask> tasks = new ArrayList<ConsumerTask>(consumers.size());
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(consumers.size());
+        for (Consumer consumer : consumers) {
+            ConsumerTask task = new ConsumerTask(appContext, consumer);
+            tasks.add(task);
+            futures.add(sConsumerExecutor.submit(task));
+        }
+
+        sCoordinator.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < tasks.size(); i++) {
+                        awaitConsumer(tasks.get(i), futures.get(i));
+                    }
+                    Log.d(LOG_TAG, SyncStats.summarizeConsumers(appContext));
+                } finally {
+                    wakeLock.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Acquires a partial wakelock that times out shortly after the slowest consumer would, so
+     * that a coordinator that never gets to release it can't keep the device awake for long.
+     */
+    private static PowerManager.WakeLock acquireWakeLock(Context context,
+            List<Consumer> consumers) {
+        long longestTimeout = 0;
+        for (Consumer consumer : consumers) {
+            longestTimeout = Math.max(longestTimeout, consumer.timeoutMillis);
+        }
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock wakeLock =
+                powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+        // Not reference counted, so releasing it after the timeout has expired is harmless
+        wakeLock.setReferenceCounted(false);
+        wakeLock.acquire(longestTimeout + WAKE_LOCK_MARGIN_MILLIS);
+        return wakeLock;
+    }
+
+    private static void awaitConsumer(ConsumerTask task, Future<Void> future) {
+        long remaining = task.startTime + task.consumer.timeoutMillis
+                - SystemClock.elapsedRealtime();
+        try {
+            future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(LOG_TAG, task.consumer.name + " took longer than "
+                    + task.consumer.timeoutMillis + " ms, interrupting it");
+            task.record(SyncStats.CONSUMER_TIMED_OUT);
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            // ConsumerTask handles its own failures
+            Log.e(LOG_TAG, "Error updating " + task.consumer.name, e.getCause());
+        } catch (InterruptedException e) {
+            // Nothing interrupts the coordinator, but don't leave the consumer running if it does
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
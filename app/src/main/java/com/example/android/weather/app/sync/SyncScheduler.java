@@ -0,0 +1,124 @@
+package com.example.android.weather.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.weather.app.widget.DetailWidgetProvider;
+import com.example.android.weather.app.widget.TodayWidgetProvider;
+
+/**
+ * Picks how often the periodic sync runs, between {@link #MIN_SYNC_INTERVAL} and
+ * {@link #MAX_SYNC_INTERVAL} seconds.
+ *
+ * Starting from {@link SunshineSyncAdapter#SYNC_INTERVAL}, the interval gets shorter when the
+ * last sync changed a lot of the forecast, when the stored forecast has gone stale, and when
+ * someone is looking at the app or has widgets on the home screen.  It gets longer when the
+ * forecast isn't changing and nobody has opened the app for a day.
+ */
+public class SyncScheduler {
+
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    static final String PREFS_NAME = "sync_schedule";
+
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_LAST_CHANGE = "last_change";
+    private static final String KEY_LAST_VIEWED = "last_viewed";
+
+    // In seconds, like SyncRequest
+    static final int MIN_SYNC_INTERVAL = 60 * 60;
+    static final int MAX_SYNC_INTERVAL = 6 * 60 * 60;
+    // Intervals are rounded to this, so that small changes don't reschedule the sync
+    private static final int INTERVAL_STEP = 15 * 60;
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Notes that someone is looking at the weather, so it should be kept fresher.
+     */
+    public static void recordViewed(Context context) {
+        getPrefs(context).edit().putLong(KEY_LAST_VIEWED, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * @return the current periodic sync interval, in seconds
+     */
+    public static int getSyncInterval(Context context) {
+        return getPrefs(context).getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * Works out the next interval after a sync that reached the server, and reschedules the
+     * periodic sync if it changed.
+     *
+     * @param fetchedCount how many rows of weather the sync downloaded
+     * @param changedCount how many of them were new or different to what we had
+     */
+    static synchronized void onSyncComplete(Context context, int fetchedCount, int changedCount) {
+        SharedPreferences prefs = getPrefs(context);
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = prefs.edit();
+        if (changedCount > 0) {
+            editor.putLong(KEY_LAST_CHANGE, now);
+        }
+
+        int interval = computeInterval(fetchedCount, changedCount,
+                changedCount > 0 ? 0 : now - prefs.getLong(KEY_LAST_CHANGE, now),
+                now - prefs.getLong(KEY_LAST_VIEWED, 0),
+                hasWidgets(context));
+        int currentInterval = prefs.getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+        if (interval != currentInterval) {
+            Log.d(LOG_TAG, "Sync interval " + currentInterval + "s -> " + interval + "s");
+            SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+            editor.putInt(KEY_INTERVAL, interval);
+        }
+        editor.apply();
+    }
+
+    /**
+     * @param dataAgeMillis    how long since the stored forecast last changed
+     * @param sinceViewedMillis how long since the app was last on screen
+     * @return the sync interval in seconds
+     */
+    static int computeInterval(int fetchedCount, int changedCount, long dataAgeMillis,
+                               long sinceViewedMillis, boolean hasWidgets) {
+        double interval = SunshineSyncAdapter.SYNC_INTERVAL;
+
+        // From half as long when everything changed, to half as long again when nothing did
+        double changedFraction = fetchedCount == 0 ? 0 : (double) changedCount / fetchedCount;
+        interval *= 1.5 - Math.min(changedFraction, 1);
+
+        // The forecast is stale if it's gone unchanged for longer than we'd ever wait.  Weather
+        // doesn't stand still, so the server is likely to have something new soon.
+        if (dataAgeMillis > MAX_SYNC_INTERVAL * 1000L) {
+            interval *= 0.75;
+        }
+
+        if (sinceViewedMillis < HOUR_IN_MILLIS) {
+            interval *= 0.5;
+        } else if (hasWidgets) {
+            interval *= 0.75;
+        } else if (sinceViewedMillis > DAY_IN_MILLIS) {
+            interval *= 1.5;
+        }
+
+        int rounded = (int) Math.round(interval / INTERVAL_STEP) * INTERVAL_STEP;
+        return Math.max(MIN_SYNC_INTERVAL, Math.min(MAX_SYNC_INTERVAL, rounded));
+    }
+
+    private static boolean hasWidgets(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0;
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.android.weather.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counters describing what our syncs actually cost, kept in their own SharedPreferences file
+ * so they survive the sync process being killed between runs.
+ */
+public class SyncStats {
+
+    static final String PREFS_NAME = "sync_stats";
+
+    // Conditional (If-None-Match / If-Modified-Since) forecast requests
+    private static final String KEY_CONDITIONAL_REQUESTS = "conditional_requests";
+    private static final String KEY_NOT_MODIFIED = "not_modified";
+    private static final String KEY_BYTES_SAVED = "not_modified_bytes_saved";
+    private static final String KEY_LAST_BODY_BYTES_PREFIX = "last_body_bytes_";
+
+    // Bytes moved by each forecast download, oldest entries overwritten first
+    static final int TRANSFER_CAPACITY = 64;
+    private static final String KEY_TRANSFER_NEXT = "transfer_next";
+    private static final String KEY_TRANSFER_PREFIX = "transfer_";
+    private static final String TRANSFER_SEPARATOR = "|";
+
+    // Requests for an immediate sync, and how many of them actually started one
+    private static final String KEY_SYNC_REQUESTS_EXECUTED = "sync_requests_executed";
+    private static final String KEY_SYNC_REQUESTS_COALESCED = "sync_requests_coalesced";
+
+    // How each consumer of a sync fared, kept as fanout_<name>_<counter>
+    private static final String KEY_CONSUMER_PREFIX = "fanout_";
+    private static final String CONSUMER_COUNT = "_count";
+    private static final String CONSUMER_TOTAL_MILLIS = "_total_millis";
+    private static final String CONSUMER_MAX_MILLIS = "_max_millis";
+    private static final String CONSUMER_FAILURES = "_failures";
+    private static final String CONSUMER_TIMEOUTS = "_timeouts";
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({CONSUMER_OK, CONSUMER_FAILED, CONSUMER_TIMED_OUT})
+    @interface ConsumerOutcome {}
+
+    static final int CONSUMER_OK = 0;
+    static final int CONSUMER_FAILED = 1;
+    static final int CONSUMER_TIMED_OUT = 2;
+
+    /**
+     * What a single forecast download cost us.
+     */
+    public static final class Transfer {
+        public final long timeMillis;
+        public final String locationSetting;
+        // Bytes read off the connection, compressed if the server gzipped the response
+        public final long wireBytes;
+        // Bytes handed to the parser after decompression
+        public final long decodedBytes;
+
+        Transfer(long timeMillis, String locationSetting, long wireBytes, long decodedBytes) {
+            this.timeMillis = timeMillis;
+            this.locationSetting = locationSetting;
+            this.wireBytes = wireBytes;
+            this.decodedBytes = decodedBytes;
+        }
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records the outcome of a forecast request that carried validators.
+     *
+     * @param notModified true if the server answered 304 Not Modified
+     */
+    static synchronized void recordRevalidation(Context context, String locationSetting,
+                                                boolean notModified) {
+        SharedPreferences prefs = getPrefs(context);
+        SharedPreferences.Editor editor = prefs.edit()
+                .putLong(KEY_CONDITIONAL_REQUESTS, prefs.getLong(KEY_CONDITIONAL_REQUESTS, 0) + 1);
+        if (notModified) {
+            // The body we didn't download is about as big as the last one we did
+            long bodyBytes = prefs.getLong(KEY_LAST_BODY_BYTES_PREFIX + locationSetting, 0);
+            editor.putLong(KEY_NOT_MODIFIED, prefs.getLong(KEY_NOT_MODIFIED, 0) + 1)
+                    .putLong(KEY_BYTES_SAVED, prefs.getLong(KEY_BYTES_SAVED, 0) + bodyBytes);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Remembers how large the last full forecast for a location was, so that later 304s can
+     * be credited with the bytes they saved.
+     */
+    static synchronized void recordBodySize(Context context, String locationSetting,
+                                            long bodyBytes) {
+        if (bodyBytes < 0) return;
+        getPrefs(context).edit()
+                .putLong(KEY_LAST_BODY_BYTES_PREFIX + locationSetting, bodyBytes)
+                .apply();
+    }
+
+    /**
+     * Adds a download to the ring of recent transfers, replacing the oldest one once the ring
+     * is full.
+     */
+    static synchronized void recordTransfer(Context context, String locationSetting,
+                                            long wireBytes, long decodedBytes) {
+        SharedPreferences prefs = getPrefs(context);
+        long next = prefs.getLong(KEY_TRANSFER_NEXT, 0);
+        // The location goes last since it's the only field that could contain the separator
+        String entry = System.currentTimeMillis() + TRANSFER_SEPARATOR + wireBytes
+                + TRANSFER_SEPARATOR + decodedBytes + TRANSFER_SEPARATOR + locationSetting;
+        prefs.edit()
+                .putString(KEY_TRANSFER_PREFIX + (next % TRANSFER_CAPACITY), entry)
+                .putLong(KEY_TRANSFER_NEXT, next + 1)
+                .apply();
+    }
+
+    /**
+     * @return the downloads still in the ring, oldest first
+     */
+    public static synchronized List<Transfer> getRecentTransfers(Context context) {
+        SharedPreferences prefs = getPrefs(context);
+        long next = prefs.getLong(KEY_TRANSFER_NEXT, 0);
+        long first = Math.max(0, next - TRANSFER_CAPACITY);
+
+        List<Transfer> transfers = new ArrayList<Transfer>((int) (next - first));
+        for (long i = first; i < next; i++) {
+            String entry = prefs.getString(KEY_TRANSFER_PREFIX + (i % TRANSFER_CAPACITY), null);
+            if (entry == null) continue;
+            String[] fields = entry.split("\\" + TRANSFER_SEPARATOR, 4);
+            if (fields.length != 4) continue;
+            try {
+                transfers.add(new Transfer(Long.parseLong(fields[0]), fields[3],
+                        Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            } catch (NumberFormatException e) {
+                // Not one of ours, leave it out
+            }
+        }
+        return transfers;
+    }
+
+    /**
+     * @return {wire bytes, decoded bytes} downloaded for a location since the given time, as
+     * far back as the ring of recent transfers goes.  A null location counts every location.
+     */
+    public static long[] getTransferredBytes(Context context, String locationSetting,
+                                             long sinceMillis) {
+        long[] bytes = new long[2];
+        for (Transfer transfer : getRecentTransfers(context)) {
+            if (transfer.timeMillis < sinceMillis) continue;
+            if (locationSetting != null && !locationSetting.equals(transfer.locationSetting)) {
+                continue;
+            }
+            bytes[0] += transfer.wireBytes;
+            bytes[1] += transfer.decodedBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Records how long a consumer of a sync took, from the moment it was handed the new data.
+     */
+    static synchronized void recordConsumer(Context context, String name,
+                                            @ConsumerOutcome int outcome, long latencyMillis) {
+        SharedPreferences prefs = getPrefs(context);
+        String key = KEY_CONSUMER_PREFIX + name;
+        SharedPreferences.Editor editor = prefs.edit()
+                .putLong(key + CONSUMER_COUNT, prefs.getLong(key + CONSUMER_COUNT, 0) + 1)
+                .putLong(key + CONSUMER_TOTAL_MILLIS,
+                        prefs.getLong(key + CONSUMER_TOTAL_MILLIS, 0) + latencyMillis)
+                .putLong(key + CONSUMER_MAX_MILLIS,
+                        Math.max(prefs.getLong(key + CONSUMER_MAX_MILLIS, 0), latencyMillis));
+        if (outcome == CONSUMER_FAILED) {
+            editor.putLong(key + CONSUMER_FAILURES, prefs.getLong(key + CONSUMER_FAILURES, 0) + 1);
+        } else if (outcome == CONSUMER_TIMED_OUT) {
+            editor.putLong(key + CONSUMER_TIMEOUTS, prefs.getLong(key + CONSUMER_TIMEOUTS, 0) + 1);
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return {runs, average millis, max millis, failures, timeouts} for a consumer of syncs
+     */
+    public static long[] getConsumerStats(Context context, String name) {
+        SharedPreferences prefs = getPrefs(context);
+        String key = KEY_CONSUMER_PREFIX + name;
+        long count = prefs.getLong(key + CONSUMER_COUNT, 0);
+        return new long[]{
+                count,
+                count == 0 ? 0 : prefs.getLong(key + CONSUMER_TOTAL_MILLIS, 0) / count,
+                prefs.getLong(key + CONSUMER_MAX_MILLIS, 0),
+                prefs.getLong(key + CONSUMER_FAILURES, 0),
+                prefs.getLong(key + CONSUMER_TIMEOUTS, 0)};
+    }
+
+    /**
+     * @return a one line summary of every consumer's latency, for the log
+     */
+    public static String summarizeConsumers(Context context) {
+        StringBuilder summary = new StringBuilder("consumers:");
+        for (String key : getPrefs(context).getAll().keySet()) {
+            if (!key.startsWith(KEY_CONSUMER_PREFIX) || !key.endsWith(CONSUMER_COUNT)) continue;
+            String name = key.substring(KEY_CONSUMER_PREFIX.length(),
+                    key.length() - CONSUMER_COUNT.length());
+            long[] stats = getConsumerStats(context, name);
+            summary.append(' ').append(name)
+                    .append(" avg ").append(stats[1]).append(" ms")
+                    .append(" max ").append(stats[2]).append(" ms")
+                    .append(" (").append(stats[3]).append(" failed, ")
+                    .append(stats[4]).append(" timed out of ").append(stats[0]).append(");");
+        }
+        return summary.toString();
+    }
+
+    /**
+     * @param executed true if the request started a sync, false if it was merged into another
+     */
+    static synchronized void recordSyncRequest(Context context, boolean executed) {
+        SharedPreferences prefs = getPrefs(context);
+        String key = executed ? KEY_SYNC_REQUESTS_EXECUTED : KEY_SYNC_REQUESTS_COALESCED;
+        prefs.edit().putLong(key, prefs.getLong(key, 0) + 1).apply();
+    }
+
+    public static long getExecutedSyncRequestCount(Context context) {
+        return getPrefs(context).getLong(KEY_SYNC_REQUESTS_EXECUTED, 0);
+    }
+
+    public static long getCoalescedSyncRequestCount(Context context) {
+        return getPrefs(context).getLong(KEY_SYNC_REQUESTS_COALESCED, 0);
+    }
+
+    /**
+     * @return a one line summary of the sync request counters, for the log
+     */
+    public static String summarizeSyncRequests(Context context) {
+        return "sync requests: " + getExecutedSyncRequestCount(context) + " executed, "
+                + getCoalescedSyncRequestCount(context) + " coalesced";
+    }
+
+    public static long getConditionalRequestCount(Context context) {
+        return getPrefs(context).getLong(KEY_CONDITIONAL_REQUESTS, 0);
+    }
+
+    public static long getNotModifiedCount(Context context) {
+        return getPrefs(context).getLong(KEY_NOT_MODIFIED, 0);
+    }
+
+    public static long getNotModifiedBytesSaved(Context context) {
+        return getPrefs(context).getLong(KEY_BYTES_SAVED, 0);
+    }
+
+    /**
+     * @return a one line summary of the counters, for the log
+     */
+    public static String summarize(Context context) {
+        long requests = getConditionalRequestCount(context);
+        long notModified = getNotModifiedCount(context);
+        return "revalidation: " + notModified + "/" + requests + " not modified, ~"
+                + getNotModifiedBytesSaved(context) + " bytes saved";
+    }
+}
@@ -1,12 +1,11 @@
 package com.example.android.weather.app.sync;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 
 import com.example.android.weather.app.Utility;
+import com.example.android.weather.app.data.TodayWeather;
 import com.example.android.weather.app.data.WeatherContract;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -35,17 +34,6 @@ public class WatchFaceUpdater implements GoogleApiClient.ConnectionCallbacks, Go
     private static final String LOW_TEMP_KEY = "low";
     private static final String TIMESTAMP_KEY = "timestamp";
 
-    private static final String[] WATCH_FACE_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-    };
-
-    // These indices must match the projection
-    private static final int INDEX_WATCH_FACE_WEATHER_ID = 0;
-    private static final int INDEX_WATCH_FACE_MAX_TEMP = 1;
-    private static final int INDEX_WATCH_FACE_MIN_TEMP = 2;
-
     public WatchFaceUpdater(Context context) {
 
         mContext = context;
@@ -82,22 +70,18 @@ public class WatchFaceUpdater implements GoogleApiClient.ConnectionCallbacks, Go
 
     public void sendDataToWearable() {
 
-        Cursor cursor;
-
         if (mGoogleApiClient == null) return;
 
 
         String locationQuery = Utility.getPreferredLocation(mContext);
 
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
         // Data obtained from the Content Provider
-        cursor = mContext.getContentResolver().query(weatherUri, WATCH_FACE_WEATHER_PROJECTION, null, null, null);
+        Bundle today = TodayWeather.query(mContext.getContentResolver(), locationQuery);
 
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WATCH_FACE_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_WATCH_FACE_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_WATCH_FACE_MIN_TEMP);
+        if (today != null) {
+            int weatherId = today.getInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            double high = today.getDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            double low = today.getDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
             long timestamp = System.currentTimeMillis();
 
             try {
@@ -137,8 +121,6 @@ public class WatchFaceUpdater implements GoogleApiClient.ConnectionCallbacks, Go
                 });
             } catch (Exception e) {
                 e.printStackTrace();
-            } finally {
-                cursor.close();
             }
 
         }